@@ -0,0 +1,100 @@
+package com.noctusoft.webviewbrowser.db;
+
+import android.database.Cursor;
+
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the migrations of {@link AppDatabase} against the schemas exported to app/schemas.
+ * The schema of the latest version is written there by the Room compiler when the app is
+ * built, and must be committed along with the change that bumps the version.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationTest {
+
+    private static final String TEST_DB = "migration-test";
+    private static final int FIRST_VERSION = 1;
+    private static final int LATEST_VERSION = 12;
+    // From this version on the database has page_fts, which is not an entity, so Room
+    // would take it for a table a migration forgot to drop
+    private static final int PAGE_FTS_VERSION = 11;
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(), AppDatabase.class);
+
+    @Test
+    public void migrateAll() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, FIRST_VERSION);
+        db.execSQL("INSERT INTO `history` (`id`, `url`, `title`, `timestamp`, `iconData`) "
+                + "VALUES ('8d3c1f4e-0000-4000-8000-000000000001', 'https://www.example.com/page', 'Page', 1000, NULL)");
+        db.close();
+
+        // One step at a time, so each migration is checked against the schema it leads to
+        for (int version = FIRST_VERSION + 1; version <= LATEST_VERSION; version++) {
+            db = helper.runMigrationsAndValidate(TEST_DB, version, version < PAGE_FTS_VERSION,
+                    Migrations.ALL[version - FIRST_VERSION - 1]);
+            if (version < LATEST_VERSION) {
+                db.close();
+            }
+        }
+
+        try (Cursor cursor = db.query("SELECT `url`, `title`, `timestamp`, `revHost`, `visitCount` FROM `history`")) {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("https://www.example.com/page", cursor.getString(0));
+            assertEquals("Page", cursor.getString(1));
+            assertEquals(1000, cursor.getLong(2));
+            assertEquals("com.example.www.", cursor.getString(3));
+            assertEquals(1, cursor.getInt(4));
+        }
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM `visits`"));
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM `history_fts` WHERE `history_fts` MATCH 'page'"));
+        db.close();
+    }
+
+    @Test
+    public void migrate7To8_mergedVisitCountMatchesVisits() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 7);
+        // Both URLs have the same canonical form; each has two visits, one of them at the same time
+        db.execSQL("INSERT INTO `history` (`id`, `url`, `urlHash`, `title`, `timestamp`, `iconHash`, "
+                + "`visitCount`, `frecency`) VALUES (1, 'https://example.com:443/page', 1, 'Old', 2000, NULL, 2, 2000)");
+        db.execSQL("INSERT INTO `history` (`id`, `url`, `urlHash`, `title`, `timestamp`, `iconHash`, "
+                + "`visitCount`, `frecency`) VALUES (2, 'https://example.com/page', 2, 'New', 3000, NULL, 2, 3000)");
+        db.execSQL("INSERT INTO `visits` (`historyId`, `timestamp`) VALUES (1, 1000), (1, 2000), (2, 2000), (2, 3000)");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 8, true, Migrations.MIGRATION_7_8);
+
+        // The most recent row is kept and takes over the visits it did not have
+        try (Cursor cursor = db.query("SELECT `id`, `title`, `visitCount` FROM `history`")) {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(2, cursor.getLong(0));
+            assertEquals("New", cursor.getString(1));
+            assertEquals(3, cursor.getInt(2));
+        }
+        assertEquals(3, count(db, "SELECT COUNT(*) FROM `visits` WHERE `historyId` = 2"));
+        assertEquals(0, count(db, "SELECT COUNT(*) FROM `visits` WHERE `historyId` <> 2"));
+        db.close();
+    }
+
+    private static int count(SupportSQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.query(sql)) {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        }
+    }
+}
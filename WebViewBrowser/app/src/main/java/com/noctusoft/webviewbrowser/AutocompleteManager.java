@@ -0,0 +1,392 @@
+package com.noctusoft.webviewbrowser;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.noctusoft.webviewbrowser.model.Favorite;
+import com.noctusoft.webviewbrowser.model.HistoryChange;
+import com.noctusoft.webviewbrowser.model.HistoryEntry;
+import com.noctusoft.webviewbrowser.utils.FrecencyUtils;
+import com.noctusoft.webviewbrowser.utils.PrefixIndex;
+import com.noctusoft.webviewbrowser.utils.UrlCanonicalizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Manager class for address bar suggestions.
+ * Keeps an in-memory prefix index over the URLs and title words of the most visited
+ * history entries and of all favorites. URLs are indexed without their scheme and
+ * "www.", so typing "exa" finds "https://www.example.com". The index is updated as
+ * pages are visited and favorites change, and all work happens on a background thread.
+ */
+public class AutocompleteManager {
+    private static final String TAG = "AutocompleteManager";
+    // Number of history entries, by frecency, that are loaded at startup
+    private static final int MAX_HISTORY_ENTRIES = 5000;
+    // Favorites rank as if they had been visited this much more
+    private static final long FAVORITE_BONUS = 2 * FrecencyUtils.HALF_LIFE_MS;
+    private static final Pattern WORD_PATTERN = Pattern.compile("[\\p{L}\\p{N}]{2,}");
+    private static AutocompleteManager instance;
+
+    private final ExecutorService executorService;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Index state, only touched on the executor thread
+    private final PrefixIndex<Suggestion> index = new PrefixIndex<>();
+    private final Map<String, Suggestion> suggestionsByKey = new HashMap<>();
+    private int removedCount;
+    private int queryGeneration;
+
+    /**
+     * A suggested page.
+     */
+    public static class Suggestion {
+        private final String url;
+        private final String title;
+        private final String key;
+        private long frecency;
+        private boolean favorite;
+        // Whether the URL has a visit in the history, as opposed to only being a favorite
+        private boolean visited;
+        // Set when the suggestion is replaced or removed; the index drops it on compaction
+        private boolean removed;
+        // Generation of the last query that matched this suggestion, used to skip duplicates
+        private int lastMatched;
+
+        Suggestion(String url, String title, String key) {
+            this.url = url;
+            this.title = title;
+            this.key = key;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public boolean isFavorite() {
+            return favorite;
+        }
+
+        long getRank() {
+            return favorite ? frecency + FAVORITE_BONUS : frecency;
+        }
+    }
+
+    /**
+     * Callback for suggestion lookups.
+     */
+    public interface SuggestionCallback {
+        /**
+         * Called on the main thread with the suggestions for a query.
+         *
+         * @param query The query the suggestions belong to.
+         * @param suggestions The suggestions, best first.
+         */
+        void onSuggestions(String query, List<Suggestion> suggestions);
+    }
+
+    /**
+     * Gets the singleton instance of AutocompleteManager.
+     * Must be called on the main thread the first time.
+     *
+     * @param context The application context.
+     * @return The AutocompleteManager instance.
+     */
+    public static synchronized AutocompleteManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new AutocompleteManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private AutocompleteManager(Context context) {
+        executorService = Executors.newSingleThreadExecutor();
+
+        // Listen before loading so that no change is missed in between
+        FavoritesManager favoritesManager = FavoritesManager.getInstance(context);
+        favoritesManager.addFavoritesListener(new FavoritesManager.FavoritesListener() {
+            @Override
+            public void onFavoriteAdded(Favorite favorite) {
+                final String url = favorite.getUrl();
+                final String title = favorite.getTitle();
+                final long timestamp = favorite.getTimestamp();
+                executorService.execute(() -> addFavorite(url, title, timestamp));
+            }
+
+            @Override
+            public void onFavoriteRemoved(String url) {
+                executorService.execute(() -> removeFavorite(url));
+            }
+        });
+
+        HistoryManager historyManager = HistoryManager.getInstance(context);
+        historyManager.addObserver(changes -> {
+            for (HistoryChange change : changes) {
+                final HistoryEntry entry = change.getEntry();
+                final String url = change.getUrl();
+                switch (change.getType()) {
+                    case VISITED:
+                        executorService.execute(() -> addVisit(url, entry.getTitle(), entry.getFrecency()));
+                        break;
+                    case REMOVED:
+                        executorService.execute(() -> removeHistoryEntry(url));
+                        break;
+                    case CLEARED:
+                        executorService.execute(this::clearHistoryEntries);
+                        break;
+                    default:
+                        // Updates and archiving leave the suggestions valid
+                        break;
+                }
+            }
+        });
+
+        final List<Favorite> favorites = favoritesManager.getAllFavorites();
+        executorService.execute(() -> {
+            for (Favorite favorite : favorites) {
+                addFavorite(favorite.getUrl(), favorite.getTitle(), favorite.getTimestamp());
+            }
+        });
+        historyManager.loadTopSites(MAX_HISTORY_ENTRIES, entries -> executorService.execute(() -> {
+            try {
+                for (HistoryEntry entry : entries) {
+                    addVisit(entry.getUrl(), entry.getTitle(), entry.getFrecency());
+                }
+                index.compact(suggestion -> !suggestion.removed);
+                removedCount = 0;
+                Log.d(TAG, "Indexed " + suggestionsByKey.size() + " suggestions");
+            } catch (Exception e) {
+                Log.e(TAG, "Error building suggestion index", e);
+            }
+        }));
+    }
+
+    /**
+     * Looks up suggestions for text typed into the address bar.
+     * Every word of the query must occur in the URL or title; the first word is looked up
+     * in the index as a prefix of the URL or of a title word.
+     *
+     * @param query The text typed so far.
+     * @param limit The maximum number of suggestions.
+     * @param callback Receives the suggestions on the main thread.
+     */
+    public void getSuggestions(final String query, final int limit, final SuggestionCallback callback) {
+        executorService.execute(() -> {
+            List<Suggestion> results = new ArrayList<>();
+            try {
+                results = findSuggestions(query, limit);
+            } catch (Exception e) {
+                Log.e(TAG, "Error looking up suggestions", e);
+            }
+            final List<Suggestion> finalResults = results;
+            mainHandler.post(() -> callback.onSuggestions(query, finalResults));
+        });
+    }
+
+    /**
+     * Finds the best suggestions for a query. Must run on the executor thread.
+     */
+    private List<Suggestion> findSuggestions(String query, final int limit) {
+        final List<Suggestion> best = new ArrayList<>(limit + 1);
+        String[] words = stripUrl(query.trim().toLowerCase(Locale.ROOT)).split("\\s+");
+        if (words[0].isEmpty() || limit <= 0) {
+            return best;
+        }
+
+        final String[] otherWords = new String[words.length - 1];
+        System.arraycopy(words, 1, otherWords, 0, otherWords.length);
+        final int generation = ++queryGeneration;
+
+        index.find(words[0], suggestion -> {
+            if (suggestion.removed || suggestion.lastMatched == generation) {
+                return true;
+            }
+            suggestion.lastMatched = generation;
+            if (!containsAll(suggestion, otherWords)) {
+                return true;
+            }
+
+            // Keep the best suggestions sorted by rank, dropping the worst beyond the limit
+            long rank = suggestion.getRank();
+            int position = best.size();
+            while (position > 0 && best.get(position - 1).getRank() < rank) {
+                position--;
+            }
+            if (position < limit) {
+                best.add(position, suggestion);
+                if (best.size() > limit) {
+                    best.remove(limit);
+                }
+            }
+            return true;
+        });
+        return best;
+    }
+
+    private static boolean containsAll(Suggestion suggestion, String[] words) {
+        if (words.length == 0) {
+            return true;
+        }
+        String title = suggestion.title == null ? "" : suggestion.title.toLowerCase(Locale.ROOT);
+        for (String word : words) {
+            if (!suggestion.key.contains(word) && !title.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records a visit, replacing the suggestion for the URL if its title changed.
+     */
+    private void addVisit(String url, String title, long frecency) {
+        String key = keyFor(url);
+        Suggestion existing = suggestionsByKey.get(key);
+        if (existing != null && equalTitles(existing.title, title)) {
+            existing.frecency = Math.max(existing.frecency, frecency);
+            existing.visited = true;
+            return;
+        }
+
+        Suggestion suggestion = new Suggestion(url, title, key);
+        suggestion.frecency = frecency;
+        suggestion.visited = true;
+        if (existing != null) {
+            suggestion.frecency = Math.max(existing.frecency, frecency);
+            suggestion.favorite = existing.favorite;
+            markRemoved(existing);
+        }
+        addToIndex(suggestion);
+    }
+
+    private void addFavorite(String url, String title, long timestamp) {
+        String key = keyFor(url);
+        Suggestion existing = suggestionsByKey.get(key);
+        if (existing != null) {
+            existing.favorite = true;
+            return;
+        }
+
+        Suggestion suggestion = new Suggestion(url, title, key);
+        suggestion.frecency = timestamp;
+        suggestion.favorite = true;
+        addToIndex(suggestion);
+    }
+
+    private void removeFavorite(String url) {
+        Suggestion existing = suggestionsByKey.get(keyFor(url));
+        if (existing == null) {
+            return;
+        }
+        if (existing.visited) {
+            existing.favorite = false;
+        } else {
+            // Only the favorite suggested it
+            markRemoved(existing);
+        }
+    }
+
+    private void removeHistoryEntry(String url) {
+        Suggestion existing = suggestionsByKey.get(keyFor(url));
+        if (existing == null) {
+            return;
+        }
+        if (existing.favorite) {
+            existing.visited = false;
+        } else {
+            markRemoved(existing);
+        }
+    }
+
+    private void clearHistoryEntries() {
+        Set<Suggestion> favorites = new HashSet<>();
+        for (Suggestion suggestion : suggestionsByKey.values()) {
+            if (suggestion.favorite) {
+                // Kept for the favorite alone from now on
+                suggestion.visited = false;
+                favorites.add(suggestion);
+            } else {
+                suggestion.removed = true;
+            }
+        }
+        suggestionsByKey.clear();
+        index.clear();
+        removedCount = 0;
+        for (Suggestion suggestion : favorites) {
+            addToIndex(suggestion);
+        }
+    }
+
+    /**
+     * Indexes a suggestion under its URL and the words of its title.
+     */
+    private void addToIndex(Suggestion suggestion) {
+        suggestionsByKey.put(suggestion.key, suggestion);
+        index.add(suggestion.key, suggestion);
+        if (suggestion.title != null) {
+            Set<String> words = new HashSet<>();
+            Matcher matcher = WORD_PATTERN.matcher(suggestion.title.toLowerCase(Locale.ROOT));
+            while (matcher.find()) {
+                if (words.add(matcher.group())) {
+                    index.add(matcher.group(), suggestion);
+                }
+            }
+        }
+    }
+
+    private void markRemoved(Suggestion suggestion) {
+        suggestion.removed = true;
+        if (suggestionsByKey.get(suggestion.key) == suggestion) {
+            suggestionsByKey.remove(suggestion.key);
+        }
+
+        // Drop removed suggestions from the index once they make up a good part of it
+        if (++removedCount > Math.max(64, suggestionsByKey.size() / 4)) {
+            index.compact(s -> !s.removed);
+            removedCount = 0;
+        }
+    }
+
+    private static boolean equalTitles(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Computes the key of a suggestion: its canonical URL, lowercased and stripped,
+     * so that spellings of a URL that differ in case or tracking parameters share it.
+     */
+    private static String keyFor(String url) {
+        return stripUrl(UrlCanonicalizer.canonicalize(url).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Removes the scheme and a leading "www." from a lowercase URL.
+     */
+    static String stripUrl(String url) {
+        String result = url;
+        int schemeEnd = result.indexOf("://");
+        if (schemeEnd >= 0) {
+            result = result.substring(schemeEnd + 3);
+        }
+        if (result.startsWith("www.")) {
+            result = result.substring(4);
+        }
+        return result;
+    }
+}
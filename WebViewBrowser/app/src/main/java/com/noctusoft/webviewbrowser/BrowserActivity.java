@@ -21,6 +21,8 @@ import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
 import android.provider.Settings;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.ContextMenu;
@@ -47,6 +49,7 @@ import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
+import android.widget.ListPopupWindow;
 import android.widget.ProgressBar;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
@@ -72,9 +75,12 @@ import com.noctusoft.webviewbrowser.model.Favorite;
 import com.noctusoft.webviewbrowser.model.HistoryEntry;
 import com.noctusoft.webviewbrowser.ui.FavoritesAdapter;
 import com.noctusoft.webviewbrowser.ui.HistoryListActivity;
+import com.noctusoft.webviewbrowser.ui.SuggestionAdapter;
 import com.noctusoft.webviewbrowser.ui.VariableManagerActivity;
 
+import com.noctusoft.webviewbrowser.utils.EphemeralMode;
 import com.noctusoft.webviewbrowser.utils.JsonUtils;
+import com.noctusoft.webviewbrowser.utils.UrlCanonicalizer;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -113,6 +119,7 @@ public class BrowserActivity extends AppCompatActivity {
     private static final int MAX_CLIPBOARD_SIZE = 393216; // ~384KB limit for clipboard
     private static final int PERMISSION_REQUEST_CODE = 1001;
     private static final int SELECTOR_TIMEOUT = 5000; // 5 seconds timeout for element selection
+    private static final int MAX_SUGGESTIONS = 8; // entries in the address bar drop-down
     private static final int DEV_TOOLS_TAB_SOURCE = 0;
     private static final int DEV_TOOLS_TAB_CONSOLE = 1;
 
@@ -152,12 +159,25 @@ public class BrowserActivity extends AppCompatActivity {
     private HistoryManager historyManager;
     private VariablesManager variablesManager;
     private FavoritesManager favoritesManager;
+    private FaviconManager faviconManager;
+    private AutocompleteManager autocompleteManager;
+    private PageIndexManager pageIndexManager;
+    private NavigationTracker navigationTracker;
+    // Whether the current page was handed to the page index, which happens once per load
+    private boolean pageIndexed;
+    private ListPopupWindow suggestionPopup;
+    private SuggestionAdapter suggestionAdapter;
+    // Address bar text the shown suggestions are for; null while the text is set by the app
+    private String suggestionQuery;
+    private boolean updatingAddressBar;
     private String currentSelector = "";
     private AlertDialog favoritesDialog;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Must happen before the layout creates the WebView
+        EphemeralMode.isolateWebView(this);
         setContentView(R.layout.activity_browser);
 
         // Initialize handlers
@@ -175,6 +195,16 @@ public class BrowserActivity extends AppCompatActivity {
         historyManager = HistoryManager.getInstance(this);
         variablesManager = VariablesManager.getInstance(this);
         favoritesManager = FavoritesManager.getInstance(this);
+        faviconManager = FaviconManager.getInstance(this);
+        autocompleteManager = AutocompleteManager.getInstance(this);
+        pageIndexManager = PageIndexManager.getInstance(this);
+        // One history visit per navigation, after redirects and pushState bursts settle
+        navigationTracker = new NavigationTracker(
+                (url, title, iconHash) -> historyManager.addEntry(url, title, iconHash));
+        if (!EphemeralMode.isActive(this)) {
+            // Vacuuming and cleanup wait for the device to be idle and charging
+            MaintenanceJobService.schedule(this);
+        }
         
         // Initialize console logs collection
         consoleLogEntries = new ArrayList<>();
@@ -183,6 +213,7 @@ public class BrowserActivity extends AppCompatActivity {
         setupUIComponents();
         setupWebView();
         setupListeners();
+        setupAutocomplete();
         setupElementSelector();
 
         // Note: Console logger is now injected in onPageFinished to ensure proper timing
@@ -252,6 +283,17 @@ public class BrowserActivity extends AppCompatActivity {
             webSettings.setMixedContentMode(WebSettings.MIXED_CONTENT_ALWAYS_ALLOW);
         }
 
+        if (EphemeralMode.isActive(this)) {
+            // Nothing is cached, and the session starts without earlier cookies or storage
+            webSettings.setCacheMode(WebSettings.LOAD_NO_CACHE);
+            if (EphemeralMode.isWebViewIsolated()) {
+                EphemeralMode.clearWebViewData(webView);
+            } else {
+                // The WebView shares the normal cookies and storage, which must not be wiped
+                Toast.makeText(this, R.string.ephemeral_webview_not_isolated, Toast.LENGTH_LONG).show();
+            }
+        }
+
         // Add JavaScript interface for communication between WebView and app
         webView.removeJavascriptInterface("Android"); // Remove any existing interface first
         webView.addJavascriptInterface(new WebAppInterface(), "Android");
@@ -286,17 +328,22 @@ public class BrowserActivity extends AppCompatActivity {
         // Navigation buttons
         backButton.setOnClickListener(v -> {
             if (webView.canGoBack()) {
+                navigationTracker.onNavigationRequested(true);
                 webView.goBack();
             }
         });
 
         forwardButton.setOnClickListener(v -> {
             if (webView.canGoForward()) {
+                navigationTracker.onNavigationRequested(true);
                 webView.goForward();
             }
         });
 
-        refreshButton.setOnClickListener(v -> webView.reload());
+        refreshButton.setOnClickListener(v -> {
+            navigationTracker.onNavigationRequested(true);
+            webView.reload();
+        });
 
         favoriteButton.setOnClickListener(v -> toggleFavorite());
 
@@ -322,6 +369,72 @@ public class BrowserActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Sets up the suggestion drop-down of the address bar.
+     */
+    private void setupAutocomplete() {
+        suggestionAdapter = new SuggestionAdapter(this);
+        suggestionPopup = new ListPopupWindow(this);
+        suggestionPopup.setAnchorView(addressBar);
+        suggestionPopup.setAdapter(suggestionAdapter);
+        suggestionPopup.setInputMethodMode(ListPopupWindow.INPUT_METHOD_NEEDED);
+        suggestionPopup.setOnItemClickListener((parent, view, position, id) -> {
+            AutocompleteManager.Suggestion suggestion = suggestionAdapter.getItem(position);
+            loadUrl(suggestion.getUrl());
+            hideKeyboard();
+        });
+
+        addressBar.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (updatingAddressBar || !addressBar.hasFocus()) {
+                    return;
+                }
+                suggestionQuery = s.toString();
+                autocompleteManager.getSuggestions(suggestionQuery, MAX_SUGGESTIONS, (query, suggestions) -> {
+                    // Ignore results for text that has changed since
+                    if (!query.equals(suggestionQuery) || isFinishing()) {
+                        return;
+                    }
+                    if (suggestions.isEmpty()) {
+                        suggestionPopup.dismiss();
+                        return;
+                    }
+                    suggestionAdapter.setSuggestions(suggestions);
+                    if (!suggestionPopup.isShowing()) {
+                        suggestionPopup.show();
+                    }
+                });
+            }
+        });
+
+        addressBar.setOnFocusChangeListener((v, hasFocus) -> {
+            if (!hasFocus) {
+                suggestionQuery = null;
+                suggestionPopup.dismiss();
+            }
+        });
+    }
+
+    /**
+     * Sets the address bar text without showing suggestions for it.
+     */
+    private void setAddressBarText(String text) {
+        updatingAddressBar = true;
+        addressBar.setText(text);
+        updatingAddressBar = false;
+        suggestionQuery = null;
+        suggestionPopup.dismiss();
+    }
+
     private void setupElementSelector() {
         selectorButton = findViewById(R.id.selector_button);
         selectorButton.setOnClickListener(v -> showSelectorDialog());
@@ -474,6 +587,7 @@ public class BrowserActivity extends AppCompatActivity {
                     
                     // Make sure console logger is injected after page is fully loaded
                     injectConsoleLogger();
+                    indexPageContent();
                     
                     if (timeoutHandler != null && timeoutRunnable != null) {
                         timeoutHandler.removeCallbacks(timeoutRunnable);
@@ -482,6 +596,21 @@ public class BrowserActivity extends AppCompatActivity {
             });
         }
         
+        @JavascriptInterface
+        public void onSameDocumentNavigation(String url, String title, boolean replace) {
+            runOnUiThread(() -> {
+                if (isFinishing() || webView == null) {
+                    return;
+                }
+                // Any page can call this; a History API navigation cannot leave the page's origin
+                if (!isSameOrigin(url, webView.getUrl())) {
+                    Log.w(TAG, "Ignored same-document navigation to another origin: " + url);
+                    return;
+                }
+                navigationTracker.onSameDocumentNavigation(url, title, replace);
+            });
+        }
+        
         // Additional methods to help with diagnostics
         @JavascriptInterface
         public boolean isInterfaceAvailable() {
@@ -530,13 +659,12 @@ public class BrowserActivity extends AppCompatActivity {
      * Loads a URL in the WebView.
      */
     private void loadUrl(String urlString) {
-        // Add http:// prefix if missing
-        if (!urlString.startsWith("http://") && !urlString.startsWith("https://")) {
-            urlString = "https://" + urlString;
-        }
+        // Add https:// prefix if missing
+        urlString = UrlCanonicalizer.withDefaultScheme(urlString);
+        navigationTracker.onNavigationRequested(true);
 
         // Update address bar
-        addressBar.setText(urlString);
+        setAddressBarText(urlString);
 
         // Load the URL
         webView.loadUrl(urlString);
@@ -546,7 +674,7 @@ public class BrowserActivity extends AppCompatActivity {
      * Saves the current browsing session.
      */
     private void saveCurrentSession() {
-        if (currentSession != null) {
+        if (currentSession != null && !EphemeralMode.isActive(this)) {
             SharedPreferences prefs = getSharedPreferences(PREF_LAST_SESSION, Context.MODE_PRIVATE);
             SharedPreferences.Editor editor = prefs.edit();
             editor.putString("url", currentSession.getUrl());
@@ -1090,6 +1218,7 @@ public class BrowserActivity extends AppCompatActivity {
     @Override
     public void onBackPressed() {
         if (webView.canGoBack()) {
+            navigationTracker.onNavigationRequested(true);
             webView.goBack();
         } else {
             super.onBackPressed();
@@ -1109,7 +1238,17 @@ public class BrowserActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         super.onPause();
+        navigationTracker.flush();
+        if (EphemeralMode.isActive(this)) {
+            // Nothing to write out
+            return;
+        }
         saveCurrentSession();
+
+        // Write out any history visits still queued in memory
+        if (historyManager != null) {
+            historyManager.flush();
+        }
     }
 
     @Override
@@ -1118,6 +1257,23 @@ public class BrowserActivity extends AppCompatActivity {
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem indexItem = menu.findItem(R.id.action_index_pages);
+        if (indexItem != null) {
+            indexItem.setChecked(pageIndexManager.isEnabled());
+        }
+        MenuItem ephemeralItem = menu.findItem(R.id.action_ephemeral_mode);
+        if (ephemeralItem != null) {
+            ephemeralItem.setChecked(EphemeralMode.isEnabled(this));
+        }
+        MenuItem pruneItem = menu.findItem(R.id.action_prune_saved_pages);
+        if (pruneItem != null) {
+            pruneItem.setChecked(MaintenanceJobService.isSavedContentPruningEnabled(this));
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
@@ -1132,6 +1288,37 @@ public class BrowserActivity extends AppCompatActivity {
         } else if (id == R.id.action_favorites) {
             showFavoritesList();
             return true;
+        } else if (id == R.id.action_index_pages) {
+            boolean enabled = !item.isChecked();
+            item.setChecked(enabled);
+            pageIndexManager.setEnabled(enabled);
+            Toast.makeText(this, enabled ? R.string.page_index_enabled : R.string.page_index_disabled,
+                    Toast.LENGTH_SHORT).show();
+            if (enabled && pageLoaded) {
+                indexPageContent();
+            }
+            return true;
+        } else if (id == R.id.action_ephemeral_mode) {
+            boolean enabled = !item.isChecked();
+            item.setChecked(enabled);
+            EphemeralMode.setEnabled(this, enabled);
+            int message;
+            if (!enabled) {
+                message = R.string.ephemeral_mode_disabled;
+            } else if (EphemeralMode.isWebViewIsolationSupported()) {
+                message = R.string.ephemeral_mode_enabled;
+            } else {
+                message = R.string.ephemeral_mode_enabled_not_isolated;
+            }
+            Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+            return true;
+        } else if (id == R.id.action_prune_saved_pages) {
+            boolean enabled = !item.isChecked();
+            item.setChecked(enabled);
+            MaintenanceJobService.setSavedContentPruningEnabled(this, enabled);
+            Toast.makeText(this, enabled ? R.string.prune_saved_pages_enabled : R.string.prune_saved_pages_disabled,
+                    Toast.LENGTH_LONG).show();
+            return true;
         }
 
         return super.onOptionsItemSelected(item);
@@ -1187,6 +1374,7 @@ public class BrowserActivity extends AppCompatActivity {
                 startActivity(Intent.createChooser(shareIntent, "Share via"));
                 return true;
             case 4: // View Image
+                navigationTracker.onNavigationRequested(true);
                 webView.loadUrl(url);
                 return true;
             case 5: // Save Image
@@ -1393,6 +1581,12 @@ public class BrowserActivity extends AppCompatActivity {
         public void onReceivedTitle(WebView view, String title) {
             super.onReceivedTitle(view, title);
 
+            // The history keeps the title seen when the visit was recorded, often a stale one
+            String url = view.getUrl();
+            if (url != null && title != null && !navigationTracker.onTitleChanged(url, title)) {
+                historyManager.updateTitle(url, title);
+            }
+
             // Update current session
             if (currentSession != null) {
                 currentSession = new BrowsingSession(
@@ -1403,6 +1597,25 @@ public class BrowserActivity extends AppCompatActivity {
             }
         }
         
+        @Override
+        public void onReceivedIcon(WebView view, Bitmap icon) {
+            super.onReceivedIcon(view, icon);
+
+            final String url = view.getUrl();
+            if (url == null || icon == null) {
+                return;
+            }
+
+            // Store the icon once and point history and favorites at it
+            faviconManager.storeIcon(icon, hash -> runOnUiThread(() -> {
+                // A visit that is not reported yet takes the icon along
+                if (!navigationTracker.setIconHash(url, hash)) {
+                    historyManager.setIconHash(url, hash);
+                }
+                favoritesManager.setIconHash(url, hash);
+            }));
+        }
+        
         @Override
         public boolean onConsoleMessage(ConsoleMessage consoleMessage) {
             Log.d(TAG, "Console message: " + consoleMessage.message() +
@@ -1418,10 +1631,21 @@ public class BrowserActivity extends AppCompatActivity {
      * Custom WebViewClient class to handle page navigation events.
      */
     private class CustomWebViewClient extends WebViewClient {
+        @Override
+        public boolean shouldOverrideUrlLoading(WebView view, WebResourceRequest request) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && request.isForMainFrame()) {
+                // Redirects and navigations started by scripts are not separate visits
+                navigationTracker.onNavigationRequested(!request.isRedirect() && request.hasGesture());
+            }
+            return shouldOverrideUrlLoading(view, request.getUrl().toString());
+        }
+
         @Override
         public boolean shouldOverrideUrlLoading(WebView view, String url) {
-            // Handle URL loading within the app
-            loadUrl(url);
+            // Handle URL loading within the app; not through loadUrl(), which counts
+            // as a navigation by the user
+            setAddressBarText(url);
+            view.loadUrl(url);
             return true;
         }
 
@@ -1430,7 +1654,9 @@ public class BrowserActivity extends AppCompatActivity {
             super.onPageStarted(view, url, favicon);
             // Show loading indicators
             pageLoaded = false;
+            pageIndexed = false;
             showLoading(true);
+            navigationTracker.onPageStarted(url);
 
             // Set a timeout for page load
             if (timeoutRunnable != null) {
@@ -1484,10 +1710,9 @@ public class BrowserActivity extends AppCompatActivity {
             updateNavigationButtons();
             updateUrlBar(url);
 
-            // Save to history
-            if (historyManager != null) {
-                historyManager.addEntry(url, view.getTitle(), null);
-            }
+            // Save to history once the navigation settles
+            injectNavigationHook();
+            navigationTracker.onPageFinished(url, view.getTitle());
         }
     }
 
@@ -1498,6 +1723,7 @@ public class BrowserActivity extends AppCompatActivity {
         if (!isFinishing() && !pageLoaded) {
             pageLoaded = true;
             showLoading(false);
+            indexPageContent();
             
             if (timeoutHandler != null && timeoutRunnable != null) {
                 timeoutHandler.removeCallbacks(timeoutRunnable);
@@ -1505,6 +1731,21 @@ public class BrowserActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Hands the HTML of the loaded page to the page index, if the user turned it on.
+     * Text extraction and indexing run in the background.
+     */
+    private void indexPageContent() {
+        if (pageIndexed || !pageIndexManager.isEnabled()) {
+            return;
+        }
+        pageIndexed = true;
+        final String url = webView.getUrl();
+        webView.evaluateJavascript(
+                "(function() { return document.documentElement.outerHTML; })();",
+                html -> pageIndexManager.indexPage(url, html));
+    }
+
     /**
      * Updates the state of navigation buttons.
      */
@@ -1520,7 +1761,7 @@ public class BrowserActivity extends AppCompatActivity {
      */
     private void updateUrlBar(String url) {
         if (url != null) {
-            addressBar.setText(url);
+            setAddressBarText(url);
             currentSession = new BrowsingSession(url, webView.getTitle(), new Date());
         }
     }
@@ -1572,7 +1813,9 @@ public class BrowserActivity extends AppCompatActivity {
             "adb pull /storage/emulated/0/Download/webpage_*.html ~/Downloads/\n\n" +
             "Or mount a directory:\n" +
             "adb push ~/Downloads/ /storage/emulated/0/Download/\n\n" +
-            "Files are saved with timestamps for easy identification.";
+            "Files are saved with timestamps for easy identification. " +
+            "They are kept until you delete them, unless you turn on " +
+            "\"Delete saved pages after a week\" in the menu.";
 
         messageView.setText(welcomeMessage);
 
@@ -1662,6 +1905,69 @@ public class BrowserActivity extends AppCompatActivity {
         }
     }
     
+    /**
+     * Checks whether two URLs have the same scheme, host and port.
+     */
+    private static boolean isSameOrigin(String url, String other) {
+        if (url == null || other == null) {
+            return false;
+        }
+        Uri a = Uri.parse(url);
+        Uri b = Uri.parse(other);
+        return a.getScheme() != null && a.getHost() != null
+                && a.getScheme().equalsIgnoreCase(b.getScheme())
+                && a.getHost().equalsIgnoreCase(b.getHost())
+                && getPort(a) == getPort(b);
+    }
+
+    private static int getPort(Uri uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        String scheme = uri.getScheme();
+        if ("https".equalsIgnoreCase(scheme)) {
+            return 443;
+        }
+        return "http".equalsIgnoreCase(scheme) ? 80 : -1;
+    }
+
+    /**
+     * Injects JavaScript to report History API navigations, which load no page and so
+     * pass no WebViewClient callback. Back and forward within the page only correct the
+     * URL of a visit that is not reported yet, like a replace.
+     */
+    private void injectNavigationHook() {
+        final String navigationScript =
+            "(function() {\n" +
+            "    if (window.androidNavigationHooked === true || typeof Android === 'undefined') {\n" +
+            "        return;\n" +
+            "    }\n" +
+            "    window.androidNavigationHooked = true;\n" +
+            "    function report(replace) {\n" +
+            "        try {\n" +
+            "            Android.onSameDocumentNavigation(location.href, document.title, replace);\n" +
+            "        } catch (e) {\n" +
+            "        }\n" +
+            "    }\n" +
+            "    var originalPushState = history.pushState;\n" +
+            "    var originalReplaceState = history.replaceState;\n" +
+            "    history.pushState = function() {\n" +
+            "        var result = originalPushState.apply(history, arguments);\n" +
+            "        report(false);\n" +
+            "        return result;\n" +
+            "    };\n" +
+            "    history.replaceState = function() {\n" +
+            "        var result = originalReplaceState.apply(history, arguments);\n" +
+            "        report(true);\n" +
+            "        return result;\n" +
+            "    };\n" +
+            "    window.addEventListener('popstate', function() {\n" +
+            "        report(true);\n" +
+            "    });\n" +
+            "})();";
+        webView.evaluateJavascript(navigationScript, null);
+    }
+
     /**
      * Injects JavaScript to capture console logs
      */
@@ -8,6 +8,7 @@ import android.util.Base64;
 import android.util.Log;
 
 import com.noctusoft.webviewbrowser.model.Credentials;
+import com.noctusoft.webviewbrowser.utils.UrlCanonicalizer;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -276,6 +277,8 @@ public class CredentialsManager {
 
     /**
      * Gets credentials for a specific domain.
+     * Only credentials stored for exactly the page's canonical host match; a parent
+     * domain does not, since hosts under one domain may belong to different owners.
      *
      * @param url The URL to get credentials for
      * @return List of credentials for the domain
@@ -286,13 +289,17 @@ public class CredentialsManager {
         }
 
         try {
-            String domain = getDomainFromUrl(url);
+            String host = UrlCanonicalizer.getHost(url);
             List<String> domains = getAllDomains();
             List<Credentials> result = new ArrayList<>();
+            if (host == null) {
+                return result;
+            }
 
             for (String storedDomain : domains) {
-                if (storedDomain.equals(domain)) {
-                    byte[] encryptedData = getEncryptedCredentials(domain);
+                String storedHost = UrlCanonicalizer.getHost(storedDomain);
+                if (host.equals(storedHost)) {
+                    byte[] encryptedData = getEncryptedCredentials(storedDomain);
                     if (encryptedData != null) {
                         byte[] decryptedData = decrypt(encryptedData);
                         if (decryptedData != null) {
@@ -312,33 +319,6 @@ public class CredentialsManager {
         }
     }
 
-    /**
-     * Extracts the domain from a URL.
-     *
-     * @param url The URL to extract domain from
-     * @return The domain part of the URL
-     */
-    private String getDomainFromUrl(String url) {
-        try {
-            String domain = url.toLowerCase();
-            if (domain.startsWith("http://")) {
-                domain = domain.substring(7);
-            } else if (domain.startsWith("https://")) {
-                domain = domain.substring(8);
-            }
-
-            int slashIndex = domain.indexOf('/');
-            if (slashIndex != -1) {
-                domain = domain.substring(0, slashIndex);
-            }
-
-            return domain;
-        } catch (Exception e) {
-            Log.e(TAG, "Error extracting domain from URL", e);
-            return url;
-        }
-    }
-
     private byte[] getEncryptedCredentials(String domain) {
         String encodedCredentials = sharedPreferences.getString(domain, null);
         if (encodedCredentials == null) {
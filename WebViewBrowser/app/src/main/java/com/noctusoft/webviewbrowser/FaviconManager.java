@@ -0,0 +1,213 @@
+package com.noctusoft.webviewbrowser;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.noctusoft.webviewbrowser.db.AppDatabase;
+import com.noctusoft.webviewbrowser.db.FaviconDao;
+import com.noctusoft.webviewbrowser.model.Favicon;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Manager class for favicons.
+ * Each distinct icon is stored once, keyed by the hash of its encoded image, and
+ * history entries and favorites refer to it by that hash. Decoded bitmaps are kept
+ * in a memory cache bounded by size.
+ */
+public class FaviconManager {
+    private static final String TAG = "FaviconManager";
+    private static final int ICON_SIZE = 64; // pixels, larger icons are scaled down
+    private static final int CACHE_SIZE_BYTES = 2 * 1024 * 1024;
+    // Below SQLite's limit of 999 query parameters
+    private static final int DELETE_BATCH_SIZE = 500;
+    private static FaviconManager instance;
+
+    private final FaviconDao faviconDao;
+    private final ExecutorService executorService;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Bitmap> bitmapCache;
+
+    /**
+     * Callback for a stored favicon.
+     */
+    public interface StoreCallback {
+        /**
+         * Called on a background thread once the icon is stored.
+         *
+         * @param hash The content hash that refers to the icon.
+         */
+        void onIconStored(String hash);
+    }
+
+    /**
+     * Callback for a loaded favicon.
+     */
+    public interface LoadCallback {
+        /**
+         * Called on the main thread with the icon.
+         *
+         * @param hash The content hash that was requested.
+         * @param icon The icon, or null if it is not stored.
+         */
+        void onIconLoaded(String hash, Bitmap icon);
+    }
+
+    /**
+     * Gets the singleton instance of FaviconManager.
+     *
+     * @param context The application context.
+     * @return The FaviconManager instance.
+     */
+    public static synchronized FaviconManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new FaviconManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FaviconManager(Context context) {
+        faviconDao = AppDatabase.getInstance(context).faviconDao();
+        executorService = Executors.newSingleThreadExecutor();
+        bitmapCache = new LruCache<String, Bitmap>(CACHE_SIZE_BYTES) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Stores an icon received for a page.
+     * The icon is scaled down, encoded and hashed in the background; an icon that is
+     * already stored is not written again.
+     *
+     * @param icon The icon as received from the WebView.
+     * @param callback Receives the content hash once stored.
+     */
+    public void storeIcon(final Bitmap icon, final StoreCallback callback) {
+        executorService.execute(() -> {
+            try {
+                Bitmap scaled = downsample(icon);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                scaled.compress(Bitmap.CompressFormat.PNG, 100, out);
+                byte[] data = out.toByteArray();
+                String hash = sha1Hex(data);
+
+                if (bitmapCache.get(hash) == null) {
+                    faviconDao.insertIfAbsent(new Favicon(hash, data, scaled.getWidth(), scaled.getHeight()));
+                    bitmapCache.put(hash, scaled);
+                }
+
+                if (callback != null) {
+                    callback.onIconStored(hash);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error storing favicon", e);
+            }
+        });
+    }
+
+    /**
+     * Loads an icon by its content hash, from memory if possible.
+     *
+     * @param hash The content hash of the icon.
+     * @param callback Receives the icon on the main thread.
+     */
+    public void loadIcon(final String hash, final LoadCallback callback) {
+        if (hash == null) {
+            callback.onIconLoaded(null, null);
+            return;
+        }
+
+        Bitmap cached = bitmapCache.get(hash);
+        if (cached != null) {
+            callback.onIconLoaded(hash, cached);
+            return;
+        }
+
+        executorService.execute(() -> {
+            Bitmap icon = null;
+            try {
+                byte[] data = faviconDao.getData(hash);
+                if (data != null) {
+                    icon = BitmapFactory.decodeByteArray(data, 0, data.length);
+                    if (icon != null) {
+                        bitmapCache.put(hash, icon);
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading favicon", e);
+            }
+            final Bitmap result = icon;
+            mainHandler.post(() -> callback.onIconLoaded(hash, result));
+        });
+    }
+
+    /**
+     * Deletes the stored icons that nothing refers to any more. Icons still in the
+     * memory cache are kept, since they were used recently and a page may be about to
+     * refer to them.
+     *
+     * @param referenced The hashes that history entries and favorites refer to.
+     * @return The number of bytes of icon data deleted, once done in the background.
+     */
+    Future<Long> deleteUnreferencedIcons(final Set<String> referenced) {
+        return executorService.submit(() -> {
+            List<String> unreferenced = new ArrayList<>();
+            for (String hash : faviconDao.getAllHashes()) {
+                if (!referenced.contains(hash) && bitmapCache.get(hash) == null) {
+                    unreferenced.add(hash);
+                }
+            }
+            long bytes = 0;
+            for (int i = 0; i < unreferenced.size(); i += DELETE_BATCH_SIZE) {
+                List<String> batch = unreferenced.subList(i, Math.min(i + DELETE_BATCH_SIZE, unreferenced.size()));
+                bytes += faviconDao.getDataSize(batch);
+                faviconDao.delete(batch);
+            }
+            Log.d(TAG, "Deleted " + unreferenced.size() + " unused favicons");
+            return bytes;
+        });
+    }
+
+    /**
+     * Scales an icon down so that neither side exceeds {@link #ICON_SIZE}.
+     */
+    private Bitmap downsample(Bitmap icon) {
+        int largestSide = Math.max(icon.getWidth(), icon.getHeight());
+        if (largestSide <= ICON_SIZE) {
+            return icon;
+        }
+        float scale = (float) ICON_SIZE / largestSide;
+        return Bitmap.createScaledBitmap(icon,
+                Math.max(1, Math.round(icon.getWidth() * scale)),
+                Math.max(1, Math.round(icon.getHeight() * scale)),
+                true);
+    }
+
+    /**
+     * Computes the hex SHA-1 hash of the given bytes.
+     */
+    private static String sha1Hex(byte[] data) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -5,6 +5,8 @@ import android.content.SharedPreferences;
 import android.util.Log;
 
 import com.noctusoft.webviewbrowser.model.Favorite;
+import com.noctusoft.webviewbrowser.utils.EphemeralMode;
+import com.noctusoft.webviewbrowser.utils.UrlCanonicalizer;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -14,9 +16,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Manages favorite websites storage and retrieval.
+ * In ephemeral mode, see {@link EphemeralMode}, changes are kept in memory only.
  */
 public class FavoritesManager {
     private static final String TAG = "FavoritesManager";
@@ -25,10 +29,30 @@ public class FavoritesManager {
 
     private static FavoritesManager instance;
     private final SharedPreferences preferences;
+    private final boolean ephemeral;
     private List<Favorite> favorites;
+    private final List<FavoritesListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Listener for favorites being added and removed.
+     */
+    public interface FavoritesListener {
+        /**
+         * Called when a favorite was added.
+         * @param favorite The new favorite
+         */
+        void onFavoriteAdded(Favorite favorite);
+
+        /**
+         * Called when a favorite was removed.
+         * @param url The URL of the removed favorite
+         */
+        void onFavoriteRemoved(String url);
+    }
 
     private FavoritesManager(Context context) {
         preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        ephemeral = EphemeralMode.isActive(context);
         loadFavorites();
     }
 
@@ -39,6 +63,22 @@ public class FavoritesManager {
         return instance;
     }
 
+    /**
+     * Register a listener for favorites being added and removed.
+     * @param listener The listener
+     */
+    public void addFavoritesListener(FavoritesListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregister a listener added with {@link #addFavoritesListener}.
+     * @param listener The listener
+     */
+    public void removeFavoritesListener(FavoritesListener listener) {
+        listeners.remove(listener);
+    }
+
     /**
      * Add a new favorite site.
      * @param title The title of the website
@@ -49,13 +89,16 @@ public class FavoritesManager {
         Favorite newFavorite = new Favorite(title, url);
         // Check if URL already exists
         for (Favorite favorite : favorites) {
-            if (favorite.getUrl().equals(url)) {
+            if (UrlCanonicalizer.isSameUrl(favorite.getUrl(), url)) {
                 return false; // Already exists
             }
         }
         
         favorites.add(newFavorite);
         saveFavorites();
+        for (FavoritesListener listener : listeners) {
+            listener.onFavoriteAdded(newFavorite);
+        }
         return true;
     }
 
@@ -66,9 +109,12 @@ public class FavoritesManager {
      */
     public boolean removeFavorite(String url) {
         for (int i = 0; i < favorites.size(); i++) {
-            if (favorites.get(i).getUrl().equals(url)) {
-                favorites.remove(i);
+            if (UrlCanonicalizer.isSameUrl(favorites.get(i).getUrl(), url)) {
+                Favorite removed = favorites.remove(i);
                 saveFavorites();
+                for (FavoritesListener listener : listeners) {
+                    listener.onFavoriteRemoved(removed.getUrl());
+                }
                 return true;
             }
         }
@@ -82,13 +128,30 @@ public class FavoritesManager {
      */
     public boolean isFavorite(String url) {
         for (Favorite favorite : favorites) {
-            if (favorite.getUrl().equals(url)) {
+            if (UrlCanonicalizer.isSameUrl(favorite.getUrl(), url)) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * Set the favicon of a favorite.
+     * @param url URL of the favorite
+     * @param iconHash Content hash of the favicon, see {@link FaviconManager}
+     */
+    public void setIconHash(String url, String iconHash) {
+        for (Favorite favorite : favorites) {
+            if (UrlCanonicalizer.isSameUrl(favorite.getUrl(), url)) {
+                if (iconHash != null && !iconHash.equals(favorite.getIconHash())) {
+                    favorite.setIconHash(iconHash);
+                    saveFavorites();
+                }
+                return;
+            }
+        }
+    }
+
     /**
      * Get all saved favorites.
      * @return List of favorites
@@ -128,6 +191,7 @@ public class FavoritesManager {
                 
                 Favorite favorite = new Favorite(title, url);
                 favorite.setTimestamp(timestamp);
+                favorite.setIconHash(jsonObject.optString("iconHash", null));
                 favorites.add(favorite);
             }
         } catch (JSONException e) {
@@ -155,9 +219,12 @@ public class FavoritesManager {
     }
 
     /**
-     * Save favorites to SharedPreferences.
+     * Save favorites to SharedPreferences, unless in ephemeral mode.
      */
     private void saveFavorites() {
+        if (ephemeral) {
+            return;
+        }
         JSONArray jsonArray = new JSONArray();
         try {
             for (Favorite favorite : favorites) {
@@ -165,6 +232,9 @@ public class FavoritesManager {
                 jsonObject.put("title", favorite.getTitle());
                 jsonObject.put("url", favorite.getUrl());
                 jsonObject.put("timestamp", favorite.getTimestamp());
+                if (favorite.getIconHash() != null) {
+                    jsonObject.put("iconHash", favorite.getIconHash());
+                }
                 jsonArray.put(jsonObject);
             }
             
@@ -0,0 +1,123 @@
+package com.noctusoft.webviewbrowser;
+
+import com.noctusoft.webviewbrowser.db.StatsDao;
+import com.noctusoft.webviewbrowser.model.DailyStats;
+import com.noctusoft.webviewbrowser.model.DomainStats;
+import com.noctusoft.webviewbrowser.model.HourlyStats;
+import com.noctusoft.webviewbrowser.utils.UrlCanonicalizer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Changes to the history statistics, summed in memory so that a batch of visits
+ * updates each row of the statistics tables once, see {@link StatsDao}.
+ * Not thread-safe; used on the history executor.
+ */
+final class HistoryAggregates {
+
+    private static final class Sums {
+        int visits;
+        long dwellTime;
+        int dwellCount;
+        long lastVisit;
+    }
+
+    private final Map<Long, Sums> days = new HashMap<>();
+    private final Map<Integer, Sums> hours = new HashMap<>();
+    private final Map<String, Sums> domains = new HashMap<>();
+    private boolean removed;
+
+    /**
+     * Counts a visit.
+     *
+     * @param url The visited URL.
+     * @param timestamp The time of the visit.
+     */
+    void addVisit(String url, long timestamp) {
+        add(url, timestamp, 1);
+    }
+
+    /**
+     * Takes back a visit that is deleted from the history. Its dwell time stays in the
+     * totals of its day and site, since it is not known per visit.
+     *
+     * @param url The visited URL.
+     * @param timestamp The time of the visit.
+     */
+    void removeVisit(String url, long timestamp) {
+        add(url, timestamp, -1);
+        removed = true;
+    }
+
+    /**
+     * Counts the estimated time spent on a page.
+     *
+     * @param url The URL of the page.
+     * @param timestamp The time of the visit.
+     * @param dwellTime The time until the next visit in milliseconds.
+     */
+    void addDwellTime(String url, long timestamp, long dwellTime) {
+        Sums day = sums(days, DailyStats.dayOf(timestamp));
+        day.dwellTime += dwellTime;
+        day.dwellCount++;
+        String domain = UrlCanonicalizer.getRegistrableDomain(url);
+        if (domain != null) {
+            Sums site = sums(domains, domain);
+            site.dwellTime += dwellTime;
+            site.dwellCount++;
+        }
+    }
+
+    boolean isEmpty() {
+        return days.isEmpty() && hours.isEmpty() && domains.isEmpty();
+    }
+
+    /**
+     * Adds the changes to the statistics tables. Should run in the transaction that
+     * writes the visits.
+     *
+     * @param dao The statistics DAO.
+     */
+    void writeTo(StatsDao dao) {
+        for (Map.Entry<Long, Sums> entry : days.entrySet()) {
+            Sums sums = entry.getValue();
+            dao.insertIfAbsent(new DailyStats(entry.getKey()));
+            dao.addToDay(entry.getKey(), sums.visits, sums.dwellTime, sums.dwellCount);
+        }
+        for (Map.Entry<Integer, Sums> entry : hours.entrySet()) {
+            dao.insertIfAbsent(new HourlyStats(entry.getKey()));
+            dao.addToHour(entry.getKey(), entry.getValue().visits);
+        }
+        for (Map.Entry<String, Sums> entry : domains.entrySet()) {
+            Sums sums = entry.getValue();
+            dao.insertIfAbsent(new DomainStats(entry.getKey()));
+            dao.addToDomain(entry.getKey(), sums.visits, sums.dwellTime, sums.dwellCount, sums.lastVisit);
+        }
+        if (removed) {
+            dao.deleteEmptyDomains();
+        }
+    }
+
+    private void add(String url, long timestamp, int visits) {
+        sums(days, DailyStats.dayOf(timestamp)).visits += visits;
+        sums(hours, HourlyStats.hourOf(timestamp)).visits += visits;
+        String domain = UrlCanonicalizer.getRegistrableDomain(url);
+        if (domain != null) {
+            Sums site = sums(domains, domain);
+            site.visits += visits;
+            if (visits > 0) {
+                site.lastVisit = Math.max(site.lastVisit, timestamp);
+            }
+        }
+    }
+
+    private static <K> Sums sums(Map<K, Sums> map, K key) {
+        Sums sums = map.get(key);
+        if (sums == null) {
+            sums = new Sums();
+            map.put(key, sums);
+        }
+        return sums;
+    }
+}
@@ -0,0 +1,377 @@
+package com.noctusoft.webviewbrowser;
+
+import android.util.Log;
+
+import com.noctusoft.webviewbrowser.model.HistoryEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Long-term store for history entries that have aged out of the database.
+ *
+ * <p>Entries are written in batches to compressed segment files, oldest first. A segment
+ * is written once to a temporary file and renamed into place, and is never appended to
+ * afterwards. Segment names hold the time range they cover, so they sort by age.
+ * Searching streams through the segments, newest first.</p>
+ *
+ * <p>An archive without a directory, as used in ephemeral mode, is always empty and
+ * cannot be written to.</p>
+ *
+ * <p>Changes to the archive are not thread-safe; {@link HistoryManager} only makes them on
+ * its own thread. {@link #search} may run on another thread at the same time, since it
+ * only reads segments, which are never modified. A search that overlaps a delete can
+ * still find deleted entries; compare {@link #getDeleteCount} before and after it.</p>
+ */
+public class HistoryArchive {
+    private static final String TAG = "HistoryArchive";
+    private static final int FORMAT_VERSION = 1;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final File directory;
+    // Completed deletes, for searches on other threads
+    private volatile int deleteCount;
+
+    /**
+     * Receives the entries read from a segment.
+     */
+    interface EntryVisitor {
+        /**
+         * @param entry An archived entry
+         * @param visitTimes The times of its visits, most recent first
+         * @return false to stop reading
+         */
+        boolean visit(HistoryEntry entry, long[] visitTimes);
+    }
+
+    /**
+     * @param directory The directory holding the segment files, created when needed, or
+     *                  null for an archive that stays empty.
+     */
+    public HistoryArchive(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return false if this archive has no directory and stays empty
+     */
+    public boolean isWritable() {
+        return directory != null;
+    }
+
+    /**
+     * Writes a batch of entries as a new segment.
+     *
+     * @param entries The entries, oldest first.
+     * @param visitTimes The visit times of each entry, most recent first, in the same order.
+     * @throws IOException If the segment could not be written; nothing is archived then.
+     */
+    public void writeSegment(List<HistoryEntry> entries, List<long[]> visitTimes) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (directory == null) {
+            throw new IOException("The archive has no directory");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        String name = String.format(Locale.ROOT, "%013d-%013d",
+                entries.get(0).getTimestamp(), entries.get(entries.size() - 1).getTimestamp());
+        File segment = uniqueFile(name);
+        File temp = new File(directory, segment.getName() + TEMP_SUFFIX);
+
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        try {
+            GZIPOutputStream gzipOut = new GZIPOutputStream(fileOut, BUFFER_SIZE);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzipOut, BUFFER_SIZE));
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                writeEntry(out, entries.get(i), visitTimes.get(i));
+            }
+            out.flush();
+            gzipOut.finish();
+            // The segment must be on disk before the rows it replaces are deleted
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            fileOut.close();
+            temp.delete();
+            throw e;
+        }
+        fileOut.close();
+
+        if (!temp.renameTo(segment)) {
+            temp.delete();
+            throw new IOException("Cannot rename " + temp);
+        }
+        Log.d(TAG, "Archived " + entries.size() + " history entries to " + segment.getName());
+    }
+
+    /**
+     * Finds archived entries whose URL or title contains all given words.
+     *
+     * @param words Lowercase words to look for.
+     * @param limit The maximum number of entries.
+     * @return The matching entries, most recent segment first.
+     */
+    public List<HistoryEntry> search(final String[] words, final int limit) {
+        final List<HistoryEntry> results = new ArrayList<>();
+        if (limit <= 0) {
+            return results;
+        }
+        // Temporary files may be segments still being written on another thread
+        List<File> segments = getSegments(false);
+        for (int i = segments.size() - 1; i >= 0 && results.size() < limit; i--) {
+            readSegment(segments.get(i), (entry, visitTimes) -> {
+                if (matches(entry, words)) {
+                    results.add(entry);
+                }
+                return results.size() < limit;
+            });
+        }
+        return results;
+    }
+
+    /**
+     * Streams all archived entries to a visitor, oldest segment first. Segments that
+     * cannot be read are skipped.
+     *
+     * @param visitor Receives the entries.
+     */
+    void forEach(EntryVisitor visitor) {
+        for (File segment : getSegments(true)) {
+            readSegment(segment, visitor);
+        }
+    }
+
+    /**
+     * Removes all archived entries for a URL. Segments that hold the URL are rewritten
+     * without it.
+     *
+     * @param urlHash The URL hash, see {@link HistoryEntry#hashUrl}.
+     */
+    public void delete(final long urlHash) {
+        deleteMatching(entry -> entry.getUrlHash() == urlHash);
+    }
+
+    /**
+     * Removes all archived entries for a range of hosts, such as a domain and its
+     * subdomains. Segments that hold such entries are rewritten without them.
+     *
+     * @param fromRevHost The first reversed host, inclusive, see {@link HistoryEntry#getRevHost}.
+     * @param toRevHost The last reversed host, exclusive.
+     */
+    public void deleteHostRange(final String fromRevHost, final String toRevHost) {
+        deleteMatching(entry -> entry.getRevHost() != null
+                && entry.getRevHost().compareTo(fromRevHost) >= 0
+                && entry.getRevHost().compareTo(toRevHost) < 0);
+    }
+
+    /**
+     * Selects archived entries to delete.
+     */
+    private interface EntryFilter {
+        boolean matches(HistoryEntry entry);
+    }
+
+    /**
+     * @return The number of deletes completed so far, which changes once the entries of
+     *         a delete or clear are gone from the archive.
+     */
+    public int getDeleteCount() {
+        return deleteCount;
+    }
+
+    private void deleteMatching(final EntryFilter filter) {
+        for (File segment : getSegments(true)) {
+            final boolean[] found = {false};
+            readSegment(segment, (entry, visitTimes) -> {
+                found[0] = filter.matches(entry);
+                return !found[0];
+            });
+            if (!found[0]) {
+                continue;
+            }
+
+            final List<HistoryEntry> kept = new ArrayList<>();
+            final List<long[]> keptVisits = new ArrayList<>();
+            boolean complete = readSegment(segment, (entry, visitTimes) -> {
+                if (!filter.matches(entry)) {
+                    kept.add(entry);
+                    keptVisits.add(visitTimes);
+                }
+                return true;
+            });
+            if (!complete) {
+                continue;
+            }
+            try {
+                // Write the replacement first, so a failure leaves duplicates rather than gaps
+                writeSegment(kept, keptVisits);
+                segment.delete();
+            } catch (IOException e) {
+                Log.e(TAG, "Error rewriting archive segment " + segment.getName(), e);
+            }
+        }
+        // Only written by the thread making changes
+        deleteCount++;
+    }
+
+    /**
+     * Removes the whole archive.
+     */
+    public void clear() {
+        if (directory == null) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        deleteCount++;
+    }
+
+    /**
+     * Lists the segment files, oldest first.
+     *
+     * @param removeTemp Whether to remove leftover temporary files, which only the thread
+     *                   making changes may do.
+     */
+    private List<File> getSegments(boolean removeTemp) {
+        File[] files = directory == null ? null : directory.listFiles();
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files);
+        List<File> segments = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (file.getName().endsWith(SEGMENT_SUFFIX)) {
+                segments.add(file);
+            } else if (removeTemp && file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Streams the entries of a segment to a visitor.
+     *
+     * @return true if the whole segment was read
+     */
+    private boolean readSegment(File segment, EntryVisitor visitor) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(segment), BUFFER_SIZE), BUFFER_SIZE))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                Log.w(TAG, "Skipping archive segment " + segment.getName() + " of version " + version);
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                HistoryEntry entry = readEntry(in);
+                long[] visitTimes = new long[in.readInt()];
+                for (int j = 0; j < visitTimes.length; j++) {
+                    visitTimes[j] = in.readLong();
+                }
+                if (!visitor.visit(entry, visitTimes)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            // Rewritten or removed since it was listed
+            Log.d(TAG, "Archive segment " + segment.getName() + " is gone");
+        } catch (EOFException e) {
+            Log.e(TAG, "Truncated archive segment " + segment.getName(), e);
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading archive segment " + segment.getName(), e);
+        }
+        return false;
+    }
+
+    private File uniqueFile(String name) {
+        File file = new File(directory, name + SEGMENT_SUFFIX);
+        for (int i = 1; file.exists(); i++) {
+            file = new File(directory, name + "-" + i + SEGMENT_SUFFIX);
+        }
+        return file;
+    }
+
+    private static boolean matches(HistoryEntry entry, String[] words) {
+        String url = entry.getUrl().toLowerCase(Locale.ROOT);
+        String title = entry.getTitle() == null ? "" : entry.getTitle().toLowerCase(Locale.ROOT);
+        for (String word : words) {
+            if (!url.contains(word) && !title.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeEntry(DataOutputStream out, HistoryEntry entry, long[] visitTimes) throws IOException {
+        writeString(out, entry.getUrl());
+        writeString(out, entry.getTitle());
+        writeString(out, entry.getIconHash());
+        out.writeLong(entry.getTimestamp());
+        out.writeInt(entry.getVisitCount());
+        out.writeLong(entry.getFrecency());
+        out.writeInt(visitTimes.length);
+        for (long visitTime : visitTimes) {
+            out.writeLong(visitTime);
+        }
+    }
+
+    private static HistoryEntry readEntry(DataInputStream in) throws IOException {
+        String url = readString(in);
+        String title = readString(in);
+        String iconHash = readString(in);
+        HistoryEntry entry = new HistoryEntry(url, title, in.readLong(), iconHash);
+        entry.setVisitCount(in.readInt());
+        entry.setFrecency(in.readLong());
+        return entry;
+    }
+
+    // Strings are written as a byte length, -1 for null, and UTF-8 bytes, since
+    // DataOutputStream.writeUTF cannot hold URLs longer than 64KB
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
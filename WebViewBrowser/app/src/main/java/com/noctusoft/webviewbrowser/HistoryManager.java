@@ -1,43 +1,248 @@
 package com.noctusoft.webviewbrowser;
 
 import android.content.Context;
-import android.os.AsyncTask;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
-import androidx.room.Database;
-import androidx.room.Room;
-import androidx.room.RoomDatabase;
-import androidx.room.TypeConverters;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
-import com.noctusoft.webviewbrowser.model.DateConverter;
+import com.noctusoft.webviewbrowser.db.AppDatabase;
+import com.noctusoft.webviewbrowser.db.HistoryDao;
+import com.noctusoft.webviewbrowser.db.JournalDao;
+import com.noctusoft.webviewbrowser.db.StatsDao;
+import com.noctusoft.webviewbrowser.db.VisitDao;
+import com.noctusoft.webviewbrowser.model.DailyStats;
+import com.noctusoft.webviewbrowser.model.HistoryChange;
 import com.noctusoft.webviewbrowser.model.HistoryEntry;
+import com.noctusoft.webviewbrowser.model.HistorySearchResult;
+import com.noctusoft.webviewbrowser.model.HistoryStats;
+import com.noctusoft.webviewbrowser.model.HostSummary;
+import com.noctusoft.webviewbrowser.model.JournalRecord;
+import com.noctusoft.webviewbrowser.model.Visit;
+import com.noctusoft.webviewbrowser.utils.EphemeralMode;
+import com.noctusoft.webviewbrowser.utils.FtsUtils;
+import com.noctusoft.webviewbrowser.utils.PerfMetrics;
+import com.noctusoft.webviewbrowser.utils.UrlCanonicalizer;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manager class for browser history.
+ * Recent history lives in the database; entries that age out of it are moved in batches
+ * to the compressed {@link HistoryArchive}, where they can still be searched.
+ * The database is opened in the background; the manager reports when it is open, see
+ * {@link #whenReady}. Entries are read from the database when asked for, and visits are
+ * queued and written in batches, see {@link #flush()}.
+ * Every change is also recorded in a journal with increasing sequence numbers, so
+ * backups can take only the changes since the last one, see {@link #exportChanges}.
+ * In ephemeral mode, see {@link EphemeralMode}, the database is held in memory and
+ * nothing is archived or written to storage.
  */
 public class HistoryManager {
     private static final String TAG = "HistoryManager";
-    private static final String DATABASE_NAME = "browser_history";
+    private static final long FLUSH_DELAY_MS = 2000;
+    private static final int FLUSH_BATCH_SIZE = 20;
+    private static final int SEARCH_CANDIDATE_LIMIT = 200;
+    // Entries older than this, or beyond HOT_MAX_ENTRIES, are moved to the archive
+    private static final long HOT_RETENTION_MS = 90L * 24 * 60 * 60 * 1000;
+    private static final int HOT_MAX_ENTRIES = 20000;
+    private static final int ARCHIVE_BATCH_SIZE = 1000;
+    private static final long ARCHIVE_INTERVAL_MS = 60 * 60 * 1000;
+    private static final String ARCHIVE_DIRECTORY = "history_archive";
+    // A longer gap before the next visit is taken as the user being away, not reading
+    private static final long MAX_DWELL_MS = 30 * 60 * 1000;
+    // Journal records beyond this many are trimmed, oldest first, when entries are archived
+    private static final int JOURNAL_MAX_RECORDS = 50000;
+    private static final String JOURNAL_PREFS = "history_journal";
+    // The last sequence number removed by trimming; changes since an older one are incomplete
+    private static final String KEY_TRIMMED_SEQ = "trimmed_seq";
     private static HistoryManager instance;
 
-    private final HistoryDatabase database;
-    private final ExecutorService executorService;
-    private List<HistoryEntry> historyEntries = new ArrayList<>();
-    private final int maxHistoryEntries = 1000;
+    private final Context context;
+    private final boolean ephemeral;
+    // Opened on the executor thread by the first load, so construction does no disk I/O
+    private AppDatabase database;
+    // Volatile for archive searches, which run on their own thread
+    private volatile HistoryArchive archive;
+    private final ScheduledExecutorService executorService;
+    // Archive searches read segments, which are never modified, so they need not wait
+    // behind database work
+    private final ExecutorService archiveSearchExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean ready;
+    private final long createdAt = PerfMetrics.start();
+
+    // Write-behind state, only touched on the executor thread
+    private final List<HistoryEntry> pendingVisits = new ArrayList<>();
+    // Title and favicon changes to entries without a queued visit, by URL hash
+    private final Map<Long, MetadataUpdate> pendingUpdates = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private long lastArchiveRun;
+    // The last journal sequence number removed by trimming, see KEY_TRIMMED_SEQ
+    private long trimmedSeq;
+    // Dwell times estimated since the last flush, and the visit the next one is measured from
+    private HistoryAggregates pendingStats = new HistoryAggregates();
+    private String lastVisitUrl;
+    private long lastVisitTime;
+
+    private final List<HistoryObserver> observers = new CopyOnWriteArrayList<>();
+
+    /**
+     * A queued partial update of a stored entry. Null fields are left as they are.
+     */
+    private static final class MetadataUpdate {
+        final long urlHash;
+        final String url;
+        String title;
+        String iconHash;
+
+        MetadataUpdate(long urlHash, String url) {
+            this.urlHash = urlHash;
+            this.url = url;
+        }
+    }
 
     /**
-     * Room database definition for history entries.
+     * Callback for asynchronous history searches.
      */
-    @Database(entities = {HistoryEntry.class}, version = 1, exportSchema = false)
-    @TypeConverters({DateConverter.class})
-    public abstract static class HistoryDatabase extends RoomDatabase {
-        public abstract HistoryDao historyDao();
+    public interface SearchCallback {
+        /**
+         * Called on the main thread with the results of a search.
+         *
+         * @param query The query the results belong to.
+         * @param results The matching entries, best match first.
+         */
+        void onSearchResults(String query, List<HistoryEntry> results);
+    }
+
+    /**
+     * Callback for asynchronous page loads.
+     */
+    public interface PageCallback {
+        /**
+         * Called on the main thread with a page of history entries.
+         *
+         * @param page The entries, most recent first. Fewer than requested means the end was reached.
+         */
+        void onPageLoaded(List<HistoryEntry> page);
+    }
+
+    /**
+     * Callback for asynchronously loaded lists of entries.
+     */
+    public interface EntriesCallback {
+        /**
+         * Called on the main thread with the entries.
+         *
+         * @param entries The entries.
+         */
+        void onEntriesLoaded(List<HistoryEntry> entries);
+    }
+
+    /**
+     * Callback for history exports and imports.
+     */
+    public interface TransferCallback {
+        /**
+         * Called on the main thread when the transfer finished.
+         *
+         * @param count The number of entries exported or visits imported.
+         * @param error The error that stopped the transfer, or null if it succeeded.
+         */
+        void onTransferComplete(int count, Exception error);
+    }
+
+    /**
+     * Callback for the changes recorded in the journal.
+     */
+    public interface ChangesCallback {
+        /**
+         * Called on the main thread with the changes.
+         *
+         * @param changes The changes, in sequence order. The last one's sequence number is
+         *                where to continue from.
+         * @param complete false if changes after the requested sequence number were
+         *                 trimmed from the journal, so a full export is needed instead.
+         */
+        void onChangesLoaded(List<JournalRecord> changes, boolean complete);
+    }
+
+    /**
+     * Callback for incremental backups.
+     */
+    public interface BackupCallback {
+        /**
+         * Called on the main thread when the backup finished.
+         *
+         * @param count The number of changes, or entries for a full export, written.
+         * @param seq The sequence number the backup is current to, to pass to the next
+         *            backup, or the one passed in if it failed.
+         * @param full Whether the whole history was written rather than only the changes.
+         * @param error The error that stopped the backup, or null if it succeeded.
+         */
+        void onBackupComplete(int count, long seq, boolean full, Exception error);
+    }
+
+    /**
+     * Callback for the history statistics.
+     */
+    public interface StatsCallback {
+        /**
+         * Called on the main thread with the statistics.
+         *
+         * @param stats The statistics.
+         */
+        void onStatsLoaded(HistoryStats stats);
+    }
+
+    /**
+     * Callback for the history grouped by host.
+     */
+    public interface HostsCallback {
+        /**
+         * Called on the main thread with the hosts.
+         *
+         * @param hosts The hosts, most recently visited first.
+         */
+        void onHostsLoaded(List<HostSummary> hosts);
+    }
+
+    /**
+     * Observer of changes to the history.
+     */
+    public interface HistoryObserver {
+        /**
+         * Called on the main thread after the history changed.
+         *
+         * @param changes What changed, in order. Neither the list nor its entries may be
+         *                modified.
+         */
+        void onHistoryChanged(List<HistoryChange> changes);
     }
 
     /**
@@ -54,104 +259,804 @@ public class HistoryManager {
     }
 
     private HistoryManager(Context context) {
-        database = Room.databaseBuilder(context, HistoryDatabase.class, DATABASE_NAME)
-                .fallbackToDestructiveMigration()
-                .build();
-        executorService = Executors.newSingleThreadExecutor();
+        this.context = context;
+        this.ephemeral = EphemeralMode.isActive(context);
+        executorService = Executors.newSingleThreadScheduledExecutor();
+        archiveSearchExecutor = Executors.newSingleThreadExecutor();
         loadHistory();
     }
 
     /**
-     * Load history entries from database.
+     * @return true once the database is open, see {@link #whenReady}
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Runs a callback on the main thread once the database is open and queued visits
+     * from before are written. If the manager is already ready, the callback is posted
+     * right away.
+     *
+     * @param callback The callback.
+     */
+    public void whenReady(final Runnable callback) {
+        if (ready) {
+            mainHandler.post(callback);
+        } else {
+            // The initial load is the first task, so this runs after it
+            executorService.execute(() -> mainHandler.post(callback));
+        }
+    }
+
+    /**
+     * Registers an observer of changes to the history. The observer receives every
+     * change made by work queued after this call, in order.
+     *
+     * @param observer The observer.
+     */
+    public void addObserver(final HistoryObserver observer) {
+        // Registering on the executor keeps changes already queued from reaching it
+        executorService.execute(() -> observers.add(observer));
+    }
+
+    /**
+     * Unregisters an observer added with {@link #addObserver}. No calls are made to it
+     * afterwards. Must be called on the main thread.
+     *
+     * @param observer The observer.
+     */
+    public void removeObserver(HistoryObserver observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Sends the given changes to all observers. Must run on the executor thread, after
+     * the changes were made.
+     */
+    private void publish(final HistoryChange... changes) {
+        if (observers.isEmpty() || changes.length == 0) {
+            return;
+        }
+        final List<HistoryChange> changeList = Collections.unmodifiableList(Arrays.asList(changes));
+        mainHandler.post(() -> {
+            for (HistoryObserver observer : observers) {
+                observer.onHistoryChanged(changeList);
+            }
+        });
+    }
+
+    /**
+     * Opens the database, writes the queued visits and tells observers to reload.
+     * Entries due for the archive are moved there afterwards.
      */
     private void loadHistory() {
         executorService.execute(() -> {
             try {
-                historyEntries = database.historyDao().getAllEntries();
-                Log.d(TAG, "Loaded " + historyEntries.size() + " history entries");
+                if (database == null) {
+                    long openStart = PerfMetrics.start();
+                    database = AppDatabase.getInstance(context);
+                    archive = new HistoryArchive(ephemeral ? null : new File(context.getFilesDir(), ARCHIVE_DIRECTORY));
+                    if (!ephemeral) {
+                        trimmedSeq = journalPrefs().getLong(KEY_TRIMMED_SEQ, 0);
+                    }
+                    database.getOpenHelper().getWritableDatabase();
+                    PerfMetrics.record("history.open", openStart);
+                }
+
+                // Make sure queued visits are part of what observers read back
+                flushPendingWrites();
             } catch (Exception e) {
                 Log.e(TAG, "Error loading history", e);
-                historyEntries = new ArrayList<>();
+            }
+
+            if (!ready) {
+                ready = true;
+                PerfMetrics.record("history.ready", createdAt);
+            }
+            publish(HistoryChange.reloaded());
+            if (archive != null) {
+                archiveOldEntries();
             }
         });
     }
 
+    /**
+     * Tells observers to read the history again.
+     * Normally they follow the changes; this is only needed when the database may have
+     * been changed behind the manager's back.
+     */
+    public void reloadHistory() {
+        loadHistory();
+    }
+
     /**
      * Adds a new entry to the history.
+     * Observers are told right away; the database write is queued and written together
+     * with other visits, see {@link #flush()}.
      *
      * @param url The URL of the page.
      * @param title The title of the page.
-     * @param iconData Optional favicon data.
+     * @param iconHash Optional content hash of the favicon, see {@link FaviconManager}.
      */
-    public void addEntry(final String url, final String title, final byte[] iconData) {
+    public void addEntry(final String url, final String title, final String iconHash) {
         executorService.execute(() -> {
             try {
                 // Create a new history entry
-                HistoryEntry newEntry = new HistoryEntry(url, title, new Date(), iconData);
+                HistoryEntry newEntry = new HistoryEntry(url, title, System.currentTimeMillis(), iconHash);
+                recordDwellTime(url, newEntry.getTimestamp());
+                takePendingUpdate(newEntry);
 
-                // Remove any existing entries with the same URL
-                database.historyDao().deleteByUrl(url);
+                // Carry the counts over from the last visit, so observers see them now
+                HistoryEntry previous = findLatestVisit(newEntry.getUrlHash());
+                if (previous != null) {
+                    newEntry.addPreviousVisits(previous);
+                }
 
-                // Add the new entry
-                database.historyDao().insert(newEntry);
+                // Queue the write; every visit is recorded. The queued copy is completed
+                // when it is written, the published entry is not modified.
+                pendingVisits.add(new HistoryEntry(newEntry));
+                publish(HistoryChange.visited(newEntry));
+                scheduleFlush();
+
+                Log.d(TAG, "Added history entry: " + url);
+            } catch (Exception e) {
+                Log.e(TAG, "Error adding history entry", e);
+            }
+        });
+    }
+
+    /**
+     * Gives a new visit the title and favicon queued for its URL before the URL had an
+     * entry, such as a favicon that arrived while the first visit was still loading.
+     * The visit's own values take precedence. Must run on the executor thread.
+     *
+     * @param visit The new visit.
+     */
+    private void takePendingUpdate(HistoryEntry visit) {
+        MetadataUpdate update = pendingUpdates.remove(visit.getUrlHash());
+        if (update == null) {
+            return;
+        }
+        if (visit.getTitle() == null) {
+            visit.setTitle(update.title);
+        }
+        if (visit.getIconHash() == null) {
+            visit.setIconHash(update.iconHash);
+        }
+    }
+
+    /**
+     * Estimates the time spent on the previous page as the time until this visit.
+     * Must run on the executor thread.
+     *
+     * @param url The URL of the new visit.
+     * @param timestamp The time of the new visit.
+     */
+    private void recordDwellTime(String url, long timestamp) {
+        long dwellTime = timestamp - lastVisitTime;
+        if (lastVisitUrl != null && dwellTime > 0 && dwellTime <= MAX_DWELL_MS) {
+            pendingStats.addDwellTime(lastVisitUrl, lastVisitTime, dwellTime);
+        }
+        lastVisitUrl = url;
+        lastVisitTime = timestamp;
+    }
+
+    /**
+     * Sets the title of the history entry for a URL, such as when the page reports its
+     * final title after it was recorded.
+     *
+     * @param url The URL of the entry.
+     * @param title The page title.
+     */
+    public void updateTitle(final String url, final String title) {
+        updateMetadata(url, title, null);
+    }
 
-                // Trim the history if needed
-                if (getEntries().size() > maxHistoryEntries) {
-                    List<HistoryEntry> entries = database.historyDao().getOldestEntriesExceedingLimit(maxHistoryEntries);
-                    for (HistoryEntry entry : entries) {
-                        database.historyDao().delete(entry);
+    /**
+     * Sets the favicon of the history entry for a URL.
+     *
+     * @param url The URL of the entry.
+     * @param iconHash The content hash of the favicon, see {@link FaviconManager}.
+     */
+    public void setIconHash(final String url, final String iconHash) {
+        updateMetadata(url, null, iconHash);
+    }
+
+    /**
+     * Changes the title or favicon of the entry for a URL in place. Observers are told at
+     * once. A queued visit to the URL takes the values along; otherwise the
+     * change is queued and written with the next batch of visits, as one partial update
+     * of the stored row. A change to a URL that has no row yet is kept until the next
+     * batch that has visits, so a visit recorded meanwhile takes it along.
+     *
+     * @param url The URL of the entry.
+     * @param title The new title, or null to keep the current one.
+     * @param iconHash The new favicon hash, or null to keep the current one.
+     */
+    private void updateMetadata(final String url, final String title, final String iconHash) {
+        executorService.execute(() -> {
+            try {
+                long urlHash = HistoryEntry.hashUrl(url);
+                HistoryEntry pending = findPendingVisit(urlHash);
+                if (pending != null) {
+                    if (!isUnchanged(title, pending.getTitle())
+                            || !isUnchanged(iconHash, pending.getIconHash())) {
+                        setMetadata(pending, title, iconHash);
+                        publish(HistoryChange.updated(new HistoryEntry(pending)));
                     }
+                    return;
                 }
 
-                // Reload history entries
-                historyEntries = database.historyDao().getAllEntries();
-                
-                Log.d(TAG, "Added history entry: " + url);
+                HistoryEntry stored = database.historyDao().getEntryByUrlHash(urlHash);
+                if (stored != null) {
+                    if (isUnchanged(title, stored.getTitle()) && isUnchanged(iconHash, stored.getIconHash())) {
+                        // The stored row has these values as well
+                        return;
+                    }
+                    setMetadata(stored, title, iconHash);
+                    publish(HistoryChange.updated(stored));
+                }
+
+                MetadataUpdate update = pendingUpdates.get(urlHash);
+                if (update == null) {
+                    update = new MetadataUpdate(urlHash, url);
+                    pendingUpdates.put(urlHash, update);
+                }
+                if (title != null) {
+                    update.title = title;
+                }
+                if (iconHash != null) {
+                    update.iconHash = iconHash;
+                }
+                scheduleFlush();
             } catch (Exception e) {
-                Log.e(TAG, "Error adding history entry", e);
+                Log.e(TAG, "Error updating history entry", e);
             }
         });
     }
 
+    private static boolean isUnchanged(String value, String current) {
+        return value == null || value.equals(current);
+    }
+
+    private static void setMetadata(HistoryEntry entry, String title, String iconHash) {
+        if (title != null) {
+            entry.setTitle(title);
+        }
+        if (iconHash != null) {
+            entry.setIconHash(iconHash);
+        }
+    }
+
     /**
-     * Gets all history entries.
+     * Finds the most recent queued visit to a URL. Must run on the executor thread.
      *
-     * @return A list of all history entries.
+     * @param urlHash The URL hash.
+     * @return The queued visit, or null if there is none.
      */
-    public List<HistoryEntry> getEntries() {
-        return historyEntries;
+    private HistoryEntry findPendingVisit(long urlHash) {
+        for (int i = pendingVisits.size() - 1; i >= 0; i--) {
+            if (pendingVisits.get(i).getUrlHash() == urlHash) {
+                return pendingVisits.get(i);
+            }
+        }
+        return null;
     }
 
     /**
-     * Gets history entries filtered by date.
+     * Finds the most recent visit to a URL, queued or stored. Must run on the executor
+     * thread.
+     *
+     * @param urlHash The URL hash.
+     * @return The visit, with the visit count and frecency up to it, or null if the URL
+     *         was not visited.
+     */
+    private HistoryEntry findLatestVisit(long urlHash) {
+        HistoryEntry pending = findPendingVisit(urlHash);
+        return pending != null ? pending : database.historyDao().getEntryByUrlHash(urlHash);
+    }
+
+    /**
+     * Writes the queued visits soon, or at once if enough of them are queued.
+     * Must run on the executor thread.
+     */
+    private void scheduleFlush() {
+        if (pendingVisits.size() >= FLUSH_BATCH_SIZE) {
+            flushPendingWrites();
+        } else if (scheduledFlush == null) {
+            scheduledFlush = executorService.schedule(this::flushPendingWrites,
+                    FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes all queued visits to the database now instead of waiting for the next
+     * scheduled flush. Call this when the app goes to the background.
+     */
+    public void flush() {
+        executorService.execute(this::flushPendingWrites);
+    }
+
+    /**
+     * Writes the queued visits and title and favicon changes in a single transaction.
+     * Each visit updates the visit count and frecency of its entry from the stored values,
+     * and observers are given the results. The statistics are updated in the
+     * same transaction. Must run on the executor thread.
+     */
+    private void flushPendingWrites() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pendingVisits.isEmpty() && pendingUpdates.isEmpty()) {
+            return;
+        }
+
+        final List<HistoryEntry> visits = new ArrayList<>(pendingVisits);
+        pendingVisits.clear();
+        final List<MetadataUpdate> updates = new ArrayList<>(pendingUpdates.values());
+        pendingUpdates.clear();
+        final HistoryAggregates stats = pendingStats;
+        pendingStats = new HistoryAggregates();
+
+        // Updates to URLs that have no row yet
+        final List<MetadataUpdate> unmatched = new ArrayList<>();
+        try {
+            database.runInTransaction(() -> {
+                writeVisits(visits, stats);
+                HistoryDao dao = database.historyDao();
+                List<JournalRecord> records = new ArrayList<>(updates.size());
+                for (MetadataUpdate update : updates) {
+                    if (dao.updateMetadata(update.urlHash, update.title, update.iconHash) > 0) {
+                        records.add(new JournalRecord(JournalRecord.OP_UPDATE, update.url,
+                                update.title, update.iconHash, System.currentTimeMillis()));
+                    } else {
+                        unmatched.add(update);
+                    }
+                }
+                database.journalDao().insertAll(records);
+            });
+            Log.d(TAG, "Flushed " + visits.size() + " history visits and " + updates.size() + " updates");
+            publishWritten(visits);
+            if (visits.isEmpty()) {
+                // The visit they belong to may not be queued yet; wait for the next batch
+                // of visits rather than scheduling another flush
+                for (MetadataUpdate update : unmatched) {
+                    pendingUpdates.put(update.urlHash, update);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error writing history visits", e);
+        }
+
+        if (System.currentTimeMillis() - lastArchiveRun >= ARCHIVE_INTERVAL_MS) {
+            archiveOldEntries();
+            trimJournal();
+        }
+    }
+
+    /**
+     * Writes visits in a single transaction. Each visit updates the row for its URL in
+     * place, or adds one, and is given the row id and the visit count and frecency that
+     * result. A visit older than the row's last one, as found in imports, only adds to
+     * the counts. A visit that is already recorded is skipped. Recorded visits are
+     * added to the journal.
+     *
+     * @param visits The visits.
+     */
+    private void writeVisits(List<HistoryEntry> visits) {
+        writeVisits(visits, new HistoryAggregates());
+    }
+
+    /**
+     * Writes visits as {@link #writeVisits(List)} does, and adds the recorded visits and
+     * the given changes to the statistics.
+     *
+     * @param visits The visits.
+     * @param stats Changes to the statistics, such as dwell times, to write with the visits.
+     */
+    private void writeVisits(final List<HistoryEntry> visits, final HistoryAggregates stats) {
+        database.runInTransaction(() -> {
+            HistoryDao dao = database.historyDao();
+            VisitDao visitDao = database.visitDao();
+            List<JournalRecord> records = new ArrayList<>(visits.size());
+            for (HistoryEntry visit : visits) {
+                HistoryEntry existing = dao.getEntryByUrlHash(visit.getUrlHash());
+                if (existing == null) {
+                    visit.setId(dao.insert(visit));
+                    visitDao.insert(new Visit(visit.getId(), visit.getTimestamp()));
+                    stats.addVisit(visit.getUrl(), visit.getTimestamp());
+                    records.add(JournalRecord.visit(visit));
+                    continue;
+                }
+
+                visit.setId(existing.getId());
+                if (visitDao.insert(new Visit(existing.getId(), visit.getTimestamp())) == -1) {
+                    visit.setVisitCount(existing.getVisitCount());
+                    visit.setFrecency(existing.getFrecency());
+                    continue;
+                }
+                stats.addVisit(visit.getUrl(), visit.getTimestamp());
+                // Taken before an older visit is given the values of the newer row
+                records.add(JournalRecord.visit(visit));
+                visit.addPreviousVisits(existing);
+                if (visit.getTimestamp() < existing.getTimestamp()) {
+                    visit.setUrl(existing.getUrl());
+                    visit.setTitle(existing.getTitle());
+                    visit.setTimestamp(existing.getTimestamp());
+                }
+                dao.updateVisit(existing.getId(), visit.getUrl(), visit.getTitle(), visit.getTimestamp(),
+                        visit.getIconHash(), visit.getVisitCount(), visit.getFrecency());
+            }
+            stats.writeTo(database.statsDao());
+            database.journalDao().insertAll(records);
+        });
+    }
+
+    /**
+     * Takes the stored visits of an entry out of the statistics. Must run on the executor
+     * thread, before the entry is deleted.
+     *
+     * @param stored The stored entry, or null if there is none.
+     * @param stats The changes to the statistics.
+     */
+    private void removeFromStats(HistoryEntry stored, HistoryAggregates stats) {
+        if (stored == null) {
+            return;
+        }
+        for (long time : database.visitDao().getVisitTimes(stored.getId())) {
+            stats.removeVisit(stored.getUrl(), time);
+        }
+    }
+
+    /**
+     * Tells observers about written visits, which carry the row id and the visit count
+     * and frecency computed from the database. Must run on the executor thread.
+     *
+     * @param written The written visits, in order.
+     */
+    private void publishWritten(List<HistoryEntry> written) {
+        // Only the last visit to each URL is what its row now holds
+        Map<Long, HistoryEntry> latest = new LinkedHashMap<>();
+        for (HistoryEntry visit : written) {
+            latest.remove(visit.getUrlHash());
+            latest.put(visit.getUrlHash(), visit);
+        }
+        List<HistoryChange> changes = new ArrayList<>(latest.size());
+        for (HistoryEntry visit : latest.values()) {
+            changes.add(HistoryChange.updated(new HistoryEntry(visit)));
+        }
+        publish(changes.toArray(new HistoryChange[0]));
+    }
+
+    /**
+     * Moves entries older than {@link #HOT_RETENTION_MS}, or beyond the newest
+     * {@link #HOT_MAX_ENTRIES}, from the database to the archive. Entries are taken oldest
+     * first in batches; each batch is written as one archive segment and then removed
+     * from the database with a single range delete. Without a writable archive, in
+     * ephemeral mode, entries stay in the database. Must run on the executor thread.
+     */
+    private void archiveOldEntries() {
+        lastArchiveRun = System.currentTimeMillis();
+        if (!archive.isWritable()) {
+            return;
+        }
+        try {
+            HistoryDao dao = database.historyDao();
+            VisitDao visitDao = database.visitDao();
+            long cutoff = lastArchiveRun - HOT_RETENTION_MS;
+            Long overflowTimestamp = dao.getTimestampAtPosition(HOT_MAX_ENTRIES);
+            if (overflowTimestamp != null && overflowTimestamp > cutoff) {
+                cutoff = overflowTimestamp;
+            }
+
+            int archived = 0;
+            List<HistoryEntry> batch;
+            do {
+                batch = dao.getEntriesBefore(cutoff, ARCHIVE_BATCH_SIZE);
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                List<long[]> visitTimes = new ArrayList<>(batch.size());
+                for (HistoryEntry entry : batch) {
+                    List<Long> times = visitDao.getVisitTimes(entry.getId());
+                    long[] array = new long[times.size()];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = times.get(i);
+                    }
+                    visitTimes.add(array);
+                }
+
+                archive.writeSegment(batch, visitTimes);
+                HistoryEntry last = batch.get(batch.size() - 1);
+                dao.deleteUpTo(last.getTimestamp(), last.getId());
+                archived += batch.size();
+            } while (batch.size() == ARCHIVE_BATCH_SIZE);
+
+            if (archived > 0) {
+                publish(HistoryChange.reloaded());
+                Log.d(TAG, "Archived " + archived + " history entries");
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error archiving history", e);
+        }
+    }
+
+    /**
+     * Loads history entries filtered by date from the database, as a range read on the
+     * timestamp index. The load runs in the background.
      *
      * @param since Optional date to filter entries after.
-     * @param limit Optional maximum number of entries to return.
-     * @return A filtered list of history entries.
-     */
-    public List<HistoryEntry> getEntries(final Date since, final Integer limit) {
-        List<HistoryEntry> result = new ArrayList<>();
-        
-        // Make a copy to avoid concurrency issues
-        List<HistoryEntry> entriesCopy = new ArrayList<>(historyEntries);
-        
-        // Apply date filter if provided
-        if (since != null) {
-            for (HistoryEntry entry : entriesCopy) {
-                if (entry.getTimestamp().after(since) || entry.getTimestamp().equals(since)) {
-                    result.add(entry);
+     * @param limit The maximum number of entries to return.
+     * @param callback Receives the entries, most recent first, on the main thread.
+     */
+    public void loadEntries(final Date since, final int limit, final EntriesCallback callback) {
+        executorService.execute(() -> {
+            List<HistoryEntry> entries = new ArrayList<>();
+            try {
+                // Queued visits must be in the table to be listed
+                flushPendingWrites();
+                entries = database.historyDao().getEntriesSince(since == null ? 0 : since.getTime(), limit);
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading history entries", e);
+            }
+            final List<HistoryEntry> finalEntries = entries;
+            mainHandler.post(() -> callback.onEntriesLoaded(finalEntries));
+        });
+    }
+
+    /**
+     * Searches the history by title and URL words using the full-text index.
+     * Each word matches as a prefix, and words of a single character are ignored.
+     * Matches are ranked by relevance, then by frecency, after the matching visits that
+     * are still queued. The search runs in the background and the callback is invoked on
+     * the main thread.
+     *
+     * @param query The text to search for.
+     * @param limit The maximum number of results.
+     * @param callback Receives the results.
+     */
+    public void searchEntries(final String query, final int limit, final SearchCallback callback) {
+        final String matchQuery = FtsUtils.toPrefixQuery(query);
+        if (matchQuery == null) {
+            mainHandler.post(() -> callback.onSearchResults(query, new ArrayList<>()));
+            return;
+        }
+        final List<String> tokens = FtsUtils.toTokens(query);
+
+        executorService.execute(() -> {
+            List<HistoryEntry> results = new ArrayList<>();
+            try {
+                // Queued visits are not in the index yet; they are the most recent, so they
+                // come first, and replace the stored row of the same URL
+                Set<Long> queued = new HashSet<>();
+                for (int i = pendingVisits.size() - 1; i >= 0 && results.size() < limit; i--) {
+                    HistoryEntry visit = pendingVisits.get(i);
+                    if (FtsUtils.matchesAllPrefixes(tokens, visit.getUrl(), visit.getTitle())
+                            && queued.add(visit.getUrlHash())) {
+                        results.add(new HistoryEntry(visit));
+                    }
                 }
+
+                List<HistorySearchResult> matches =
+                        database.historyDao().searchWithMatchInfo(matchQuery, Math.max(limit, SEARCH_CANDIDATE_LIMIT));
+                final int count = matches.size();
+                final double[] scores = new double[count];
+                List<Integer> order = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    scores[i] = matches.get(i).getScore();
+                    order.add(i);
+                }
+                // Candidates arrive by frecency; a stable sort keeps that order for equal scores
+                Collections.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+                for (int i = 0; i < count && results.size() < limit; i++) {
+                    HistoryEntry entry = matches.get(order.get(i)).entry;
+                    if (!queued.contains(entry.getUrlHash())) {
+                        results.add(entry);
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error searching history", e);
             }
-        } else {
-            result.addAll(entriesCopy);
+            final List<HistoryEntry> finalResults = results;
+            mainHandler.post(() -> callback.onSearchResults(query, finalResults));
+        });
+    }
+
+    /**
+     * Searches the archived history for entries whose URL or title contains every word of
+     * the query. This reads through the archive, so it is slower than
+     * {@link #searchEntries} and meant to complement it when that finds too little.
+     * The search runs on a thread of its own, so it does not hold up recording visits,
+     * and the callback is invoked on the main thread.
+     *
+     * @param query The text to search for.
+     * @param limit The maximum number of results.
+     * @param callback Receives the results, most recent first.
+     */
+    public void searchArchive(final String query, final int limit, final SearchCallback callback) {
+        final String[] words = query.trim().toLowerCase(Locale.ROOT).split("\\s+");
+        if (words[0].isEmpty()) {
+            mainHandler.post(() -> callback.onSearchResults(query, new ArrayList<>()));
+            return;
         }
-        
-        // Apply limit if provided
-        if (limit != null && limit < result.size()) {
-            result = result.subList(0, limit);
+
+        archiveSearchExecutor.execute(() -> {
+            List<HistoryEntry> results = new ArrayList<>();
+            try {
+                HistoryArchive searched = archive;
+                if (searched != null) {
+                    // Search again if entries were deleted meanwhile, so they do not come back
+                    int deletes;
+                    do {
+                        deletes = searched.getDeleteCount();
+                        results = searched.search(words, limit);
+                    } while (deletes != searched.getDeleteCount());
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error searching history archive", e);
+            }
+            final List<HistoryEntry> finalResults = results;
+            mainHandler.post(() -> callback.onSearchResults(query, finalResults));
+        });
+    }
+
+    /**
+     * Loads a page of history straight from the database, most recent first.
+     * Pages are keyed on (timestamp, id) of the last row already shown, so each page is
+     * an index range read no matter how deep the list is scrolled.
+     *
+     * @param after The last entry of the previous page, or null for the first page.
+     * @param pageSize The number of entries to load.
+     * @param callback Receives the page on the main thread.
+     */
+    public void loadPage(final HistoryEntry after, final int pageSize, final PageCallback callback) {
+        executorService.execute(() -> {
+            List<HistoryEntry> page = new ArrayList<>();
+            try {
+                // Queued visits must be in the table to be listed
+                flushPendingWrites();
+
+                if (after == null) {
+                    page = database.historyDao().getFirstPage(pageSize);
+                } else {
+                    page = database.historyDao().getPageAfter(after.getTimestamp(), after.getId(), pageSize);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading history page", e);
+            }
+            final List<HistoryEntry> finalPage = page;
+            mainHandler.post(() -> callback.onPageLoaded(finalPage));
+        });
+    }
+
+    /**
+     * Loads the most frequently and recently visited entries, see
+     * {@link com.noctusoft.webviewbrowser.utils.FrecencyUtils}.
+     *
+     * @param limit The maximum number of entries.
+     * @param callback Receives the entries, highest frecency first, on the main thread.
+     */
+    public void loadTopSites(final int limit, final EntriesCallback callback) {
+        executorService.execute(() -> {
+            List<HistoryEntry> topSites = new ArrayList<>();
+            try {
+                // Queued visits must be counted
+                flushPendingWrites();
+                topSites = database.historyDao().getTopSites(limit);
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading top sites", e);
+            }
+            final List<HistoryEntry> finalTopSites = topSites;
+            mainHandler.post(() -> callback.onEntriesLoaded(finalTopSites));
+        });
+    }
+
+    /**
+     * Exports the whole history, archive included, one JSON object per line. Entries are
+     * streamed in batches, so memory use does not grow with the size of the history.
+     * Favicons are written as their hashes, not as images.
+     *
+     * @param out The stream to write to; it is closed when the export is done.
+     * @param callback Receives the number of entries written on the main thread.
+     */
+    public void exportHistory(final OutputStream out, final TransferCallback callback) {
+        executorService.execute(() -> {
+            int count = 0;
+            Exception error = null;
+            try {
+                // Queued visits must be exported
+                flushPendingWrites();
+                long throughSeq = database.journalDao().getLastSeq();
+                count = HistoryTransfer.exportHistory(database, archive, throughSeq, out);
+                Log.d(TAG, "Exported " + count + " history entries");
+            } catch (Exception e) {
+                Log.e(TAG, "Error exporting history", e);
+                error = e;
+            } finally {
+                closeQuietly(out);
+            }
+            final int finalCount = count;
+            final Exception finalError = error;
+            mainHandler.post(() -> callback.onTransferComplete(finalCount, finalError));
+        });
+    }
+
+    /**
+     * Imports history from a file written by {@link #exportHistory} or
+     * {@link #exportChanges}, a bookmark file in the Netscape format, or a Google Takeout
+     * browser history file. Visits are written in batches, each in one transaction, and
+     * visits that are already recorded are skipped, so importing the same file twice adds
+     * nothing. The deletes and other changes of a change file are applied in order with
+     * its visits, so restoring a full export and then its change files in order
+     * reproduces the history.
+     *
+     * @param in The stream to read from; it is closed when the import is done.
+     * @param callback Receives the number of visits and changes read on the main thread.
+     */
+    public void importHistory(final InputStream in, final TransferCallback callback) {
+        executorService.execute(() -> {
+            int count = 0;
+            Exception error = null;
+            try {
+                flushPendingWrites();
+                count = HistoryTransfer.importHistory(in, new HistoryTransfer.HistorySink() {
+                    @Override
+                    public void write(List<HistoryEntry> visits) {
+                        writeVisits(visits);
+                    }
+
+                    @Override
+                    public void update(String url, String title, String iconHash) {
+                        writeMetadata(url, title, iconHash);
+                    }
+
+                    @Override
+                    public void delete(String url) {
+                        removeEntry(url);
+                    }
+
+                    @Override
+                    public void deleteSite(String site) {
+                        removeSite(site);
+                    }
+
+                    @Override
+                    public void clear() {
+                        removeAll();
+                    }
+                });
+                Log.d(TAG, "Imported " + count + " history visits");
+            } catch (Exception e) {
+                Log.e(TAG, "Error importing history", e);
+                error = e;
+            } finally {
+                closeQuietly(in);
+            }
+
+            if (count > 0) {
+                try {
+                    // Imported visits may be old enough for the archive
+                    archiveOldEntries();
+                    publish(HistoryChange.reloaded());
+                } catch (Exception e) {
+                    Log.e(TAG, "Error reloading history after import", e);
+                }
+            }
+            final int finalCount = count;
+            final Exception finalError = error;
+            mainHandler.post(() -> callback.onTransferComplete(finalCount, finalError));
+        });
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing stream", e);
         }
-        
-        return result;
     }
 
     /**
@@ -160,15 +1065,41 @@ public class HistoryManager {
     public void clearHistory() {
         executorService.execute(() -> {
             try {
-                database.historyDao().deleteAll();
-                historyEntries.clear();
-                Log.d(TAG, "History cleared");
+                removeAll();
             } catch (Exception e) {
                 Log.e(TAG, "Error clearing history", e);
             }
         });
     }
 
+    /**
+     * Deletes all history entries, queued visits and statistics. The journal keeps only
+     * the record of the clear, which supersedes everything before it. Must run on the
+     * executor thread.
+     */
+    private void removeAll() {
+        pendingVisits.clear();
+        pendingUpdates.clear();
+        pendingStats = new HistoryAggregates();
+        lastVisitUrl = null;
+        database.runInTransaction(() -> {
+            database.historyDao().deleteAll();
+            StatsDao statsDao = database.statsDao();
+            statsDao.deleteAllDays();
+            statsDao.deleteAllHours();
+            statsDao.deleteAllDomains();
+            JournalDao journalDao = database.journalDao();
+            journalDao.deleteAll();
+            journalDao.insert(new JournalRecord(JournalRecord.OP_CLEAR, null, null, null,
+                    System.currentTimeMillis()));
+        });
+        archive.clear();
+        // Page text went with the entries; this drops its index as well
+        PageIndexManager.getInstance(context).clear();
+        publish(HistoryChange.cleared());
+        Log.d(TAG, "History cleared");
+    }
+
     /**
      * Deletes a specific entry.
      *
@@ -177,18 +1108,7 @@ public class HistoryManager {
     public void deleteEntry(final String url) {
         executorService.execute(() -> {
             try {
-                database.historyDao().deleteByUrl(url);
-                
-                // Update in-memory list
-                List<HistoryEntry> updatedList = new ArrayList<>();
-                for (HistoryEntry entry : historyEntries) {
-                    if (!entry.getUrl().equals(url)) {
-                        updatedList.add(entry);
-                    }
-                }
-                historyEntries = updatedList;
-                
-                Log.d(TAG, "Deleted history entry: " + url);
+                removeEntry(url);
             } catch (Exception e) {
                 Log.e(TAG, "Error deleting history entry", e);
             }
@@ -196,29 +1116,369 @@ public class HistoryManager {
     }
 
     /**
-     * Interface for DAO (Data Access Object) operations.
+     * Deletes an entry from the database, the archive and the queued visits. Its journal
+     * records are replaced by the record of the delete. Must run on the executor thread.
+     *
+     * @param url The URL of the entry to delete.
+     */
+    private void removeEntry(final String url) {
+        final long urlHash = HistoryEntry.hashUrl(url);
+        for (Iterator<HistoryEntry> it = pendingVisits.iterator(); it.hasNext(); ) {
+            if (it.next().getUrlHash() == urlHash) {
+                it.remove();
+            }
+        }
+        pendingUpdates.remove(urlHash);
+        if (lastVisitUrl != null && HistoryEntry.hashUrl(lastVisitUrl) == urlHash) {
+            lastVisitUrl = null;
+        }
+        final HistoryAggregates stats = new HistoryAggregates();
+        database.runInTransaction(() -> {
+            HistoryDao dao = database.historyDao();
+            removeFromStats(dao.getEntryByUrlHash(urlHash), stats);
+            stats.writeTo(database.statsDao());
+            dao.deleteByUrlHash(urlHash);
+            JournalDao journalDao = database.journalDao();
+            journalDao.deleteForUrl(urlHash);
+            journalDao.insert(new JournalRecord(JournalRecord.OP_DELETE, url, null, null,
+                    System.currentTimeMillis()));
+        });
+        archive.delete(urlHash);
+        publish(HistoryChange.removed(url));
+
+        Log.d(TAG, "Deleted history entry: " + url);
+    }
+
+    /**
+     * Sets the title and favicon of a stored entry, as read from a change file. Must run
+     * on the executor thread.
+     *
+     * @param url The URL of the entry.
+     * @param title The new title, or null to keep it.
+     * @param iconHash The new favicon hash, or null to keep it.
+     */
+    private void writeMetadata(final String url, final String title, final String iconHash) {
+        database.runInTransaction(() -> {
+            if (database.historyDao().updateMetadata(HistoryEntry.hashUrl(url), title, iconHash) > 0) {
+                database.journalDao().insert(new JournalRecord(JournalRecord.OP_UPDATE, url, title,
+                        iconHash, System.currentTimeMillis()));
+            }
+        });
+    }
+
+    /**
+     * Loads the changes recorded in the journal after a sequence number, for a consumer
+     * that keeps its own copy of the history up to date.
+     *
+     * @param afterSeq The sequence number of the last change the consumer has, or 0.
+     * @param limit The maximum number of changes.
+     * @param callback Receives the changes on the main thread.
      */
-    @androidx.room.Dao
-    public interface HistoryDao {
-        @androidx.room.Query("SELECT * FROM history ORDER BY timestamp DESC")
-        List<HistoryEntry> getAllEntries();
+    public void loadChanges(final long afterSeq, final int limit, final ChangesCallback callback) {
+        executorService.execute(() -> {
+            List<JournalRecord> changes = new ArrayList<>();
+            boolean complete = false;
+            try {
+                // Queued visits must be included
+                flushPendingWrites();
+                complete = isJournalComplete(afterSeq, database.journalDao().getLastSeq());
+                changes = database.journalDao().getRecordsAfter(afterSeq, limit);
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading history changes", e);
+            }
+            final List<JournalRecord> finalChanges = changes;
+            final boolean finalComplete = complete;
+            mainHandler.post(() -> callback.onChangesLoaded(finalChanges, finalComplete));
+        });
+    }
 
-        @androidx.room.Query("SELECT * FROM history WHERE url = :url LIMIT 1")
-        HistoryEntry getByUrl(String url);
+    /**
+     * Backs up the history incrementally. Only the changes since an earlier backup are
+     * written, as a change file that {@link #importHistory} applies on top of it. If
+     * there is no earlier backup, or its changes are no longer all in the journal, the
+     * whole history is written instead, as {@link #exportHistory} does.
+     *
+     * @param out The stream to write to; it is closed when the backup is done.
+     * @param afterSeq The sequence number the earlier backup is current to, as given to
+     *                 its callback, or 0 if there is none.
+     * @param callback Receives the result on the main thread.
+     */
+    public void exportChanges(final OutputStream out, final long afterSeq, final BackupCallback callback) {
+        executorService.execute(() -> {
+            int count = 0;
+            long seq = afterSeq;
+            boolean full = false;
+            Exception error = null;
+            try {
+                // Queued visits must be exported
+                flushPendingWrites();
+                long throughSeq = database.journalDao().getLastSeq();
+                full = !isJournalComplete(afterSeq, throughSeq);
+                if (full) {
+                    count = HistoryTransfer.exportHistory(database, archive, throughSeq, out);
+                } else {
+                    count = HistoryTransfer.exportChanges(database, afterSeq, throughSeq, out);
+                }
+                seq = throughSeq;
+                Log.d(TAG, "Backed up " + count + (full ? " history entries" : " history changes")
+                        + " through " + throughSeq);
+            } catch (Exception e) {
+                Log.e(TAG, "Error backing up history", e);
+                error = e;
+            } finally {
+                closeQuietly(out);
+            }
+            final int finalCount = count;
+            final long finalSeq = seq;
+            final boolean finalFull = full;
+            final Exception finalError = error;
+            mainHandler.post(() -> callback.onBackupComplete(finalCount, finalSeq, finalFull, finalError));
+        });
+    }
 
-        @androidx.room.Insert
-        void insert(HistoryEntry historyEntry);
+    /**
+     * Checks whether the journal still holds every change after a sequence number.
+     * Must run on the executor thread.
+     *
+     * @param afterSeq The sequence number.
+     * @param lastSeq The sequence number of the last record.
+     * @return false if records after it were trimmed, or it does not belong to this
+     *         journal, as for 0 or one from before the app data was cleared.
+     */
+    private boolean isJournalComplete(long afterSeq, long lastSeq) {
+        return afterSeq > 0 && afterSeq <= lastSeq && afterSeq >= trimmedSeq;
+    }
 
-        @androidx.room.Delete
-        void delete(HistoryEntry historyEntry);
+    /**
+     * Removes the oldest journal records beyond {@link #JOURNAL_MAX_RECORDS}, and
+     * remembers the last one removed, so that backups older than that are done in full.
+     * Must run on the executor thread.
+     */
+    private void trimJournal() {
+        try {
+            JournalDao dao = database.journalDao();
+            Long lastTrimmed = dao.getSeqAtPosition(JOURNAL_MAX_RECORDS);
+            if (lastTrimmed == null) {
+                return;
+            }
+            trimmedSeq = lastTrimmed;
+            if (!ephemeral) {
+                // Saved first: if the delete fails, backups are only done in full needlessly
+                journalPrefs().edit().putLong(KEY_TRIMMED_SEQ, lastTrimmed).commit();
+            }
+            int trimmed = dao.deleteUpTo(lastTrimmed);
+            Log.d(TAG, "Trimmed " + trimmed + " history journal records");
+        } catch (Exception e) {
+            Log.e(TAG, "Error trimming history journal", e);
+        }
+    }
+
+    /**
+     * Loads the history statistics. They are read from aggregate tables that are updated
+     * with every write, so this does not scan the history.
+     *
+     * @param days The number of days, including today, to load visits per day for.
+     * @param domainLimit The maximum number of most visited sites.
+     * @param callback Receives the statistics on the main thread.
+     */
+    public void loadStats(final int days, final int domainLimit, final StatsCallback callback) {
+        executorService.execute(() -> {
+            HistoryStats stats = new HistoryStats(Collections.<DailyStats>emptyList(),
+                    Collections.emptyList(), Collections.emptyList());
+            try {
+                // Queued visits must be counted
+                flushPendingWrites();
+                StatsDao dao = database.statsDao();
+                long fromDay = DailyStats.dayOf(System.currentTimeMillis()) - days + 1;
+                stats = new HistoryStats(dao.getDays(fromDay), dao.getHours(), dao.getTopDomains(domainLimit));
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading history statistics", e);
+            }
+            final HistoryStats finalStats = stats;
+            mainHandler.post(() -> callback.onStatsLoaded(finalStats));
+        });
+    }
 
-        @androidx.room.Query("DELETE FROM history WHERE url = :url")
-        void deleteByUrl(String url);
+    /**
+     * Loads the history grouped by host, most recently visited host first.
+     *
+     * @param limit The maximum number of hosts.
+     * @param callback Receives the hosts on the main thread.
+     */
+    public void loadHosts(final int limit, final HostsCallback callback) {
+        executorService.execute(() -> {
+            List<HostSummary> hosts = new ArrayList<>();
+            try {
+                // Queued visits must be counted
+                flushPendingWrites();
+                hosts = database.historyDao().getHostSummaries(limit);
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading history hosts", e);
+            }
+            final List<HostSummary> finalHosts = hosts;
+            mainHandler.post(() -> callback.onHostsLoaded(finalHosts));
+        });
+    }
+
+    /**
+     * Loads the entries of a site, as a range read on the reversed host index.
+     *
+     * @param site A URL or host, such as "alliedpilots.org".
+     * @param includeSubdomains Whether to include subdomains, such as "integ.alliedpilots.org".
+     * @param limit The maximum number of entries.
+     * @param callback Receives the entries, most recent first, on the main thread.
+     */
+    public void loadSiteEntries(final String site, final boolean includeSubdomains, final int limit,
+                                final EntriesCallback callback) {
+        executorService.execute(() -> {
+            List<HistoryEntry> entries = new ArrayList<>();
+            try {
+                flushPendingWrites();
+                String revHost = UrlCanonicalizer.getReversedHost(site);
+                if (revHost == null) {
+                    Log.w(TAG, "No host in " + site);
+                } else if (includeSubdomains) {
+                    entries = database.historyDao().getEntriesForHostRange(revHost,
+                            UrlCanonicalizer.reversedHostRangeEnd(revHost), limit);
+                } else {
+                    entries = database.historyDao().getEntriesForHost(revHost, limit);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading site history", e);
+            }
+            final List<HistoryEntry> finalEntries = entries;
+            mainHandler.post(() -> callback.onEntriesLoaded(finalEntries));
+        });
+    }
+
+    /**
+     * Deletes all entries of a site and its subdomains, from the database, the archive
+     * and the queued visits. Observers are told about each removed URL.
+     *
+     * @param site A URL or host, such as "alliedpilots.org".
+     */
+    public void deleteSite(final String site) {
+        executorService.execute(() -> {
+            try {
+                removeSite(site);
+            } catch (Exception e) {
+                Log.e(TAG, "Error deleting site history", e);
+            }
+        });
+    }
+
+    /**
+     * Deletes all entries of a site and its subdomains, as {@link #deleteSite} does.
+     * The journal records of the deleted URLs are replaced by one record of the site
+     * delete. Must run on the executor thread.
+     *
+     * @param site A URL or host.
+     */
+    private void removeSite(final String site) {
+        final String fromRevHost = UrlCanonicalizer.getReversedHost(site);
+        if (fromRevHost == null) {
+            return;
+        }
+        final String toRevHost = UrlCanonicalizer.reversedHostRangeEnd(fromRevHost);
+
+        // Removed URLs by hash, for the changes sent to observers
+        final Map<Long, String> removed = new LinkedHashMap<>();
+        for (Iterator<HistoryEntry> it = pendingVisits.iterator(); it.hasNext(); ) {
+            HistoryEntry visit = it.next();
+            if (isInHostRange(visit.getRevHost(), fromRevHost, toRevHost)) {
+                removed.put(visit.getUrlHash(), visit.getUrl());
+                it.remove();
+            }
+        }
+        if (lastVisitUrl != null
+                && isInHostRange(UrlCanonicalizer.getReversedHost(lastVisitUrl), fromRevHost, toRevHost)) {
+            lastVisitUrl = null;
+        }
+        final HistoryAggregates stats = new HistoryAggregates();
+        int deleted = database.runInTransaction(() -> {
+            HistoryDao dao = database.historyDao();
+            JournalDao journalDao = database.journalDao();
+            for (String url : dao.getUrlsForHostRange(fromRevHost, toRevHost)) {
+                long urlHash = HistoryEntry.hashUrl(url);
+                removed.put(urlHash, url);
+                pendingUpdates.remove(urlHash);
+                removeFromStats(dao.getEntryByUrlHash(urlHash), stats);
+                journalDao.deleteForUrl(urlHash);
+            }
+            stats.writeTo(database.statsDao());
+            journalDao.insert(new JournalRecord(JournalRecord.OP_DELETE_SITE,
+                    UrlCanonicalizer.unreverseHost(fromRevHost), null, null, System.currentTimeMillis()));
+            return dao.deleteHostRange(fromRevHost, toRevHost);
+        });
+        archive.deleteHostRange(fromRevHost, toRevHost);
+
+        List<HistoryChange> changes = new ArrayList<>(removed.size());
+        for (String url : removed.values()) {
+            changes.add(HistoryChange.removed(url));
+        }
+        publish(changes.toArray(new HistoryChange[0]));
+        Log.d(TAG, "Deleted " + deleted + " history entries of " + site);
+    }
+
+    /**
+     * Collects the favicon hashes that history entries refer to, in the database and the
+     * archive. Queued writes are flushed first, and entries due for the archive and
+     * journal records beyond the limit are moved out, as the hourly pass would do.
+     *
+     * @return The hashes, once collected in the background.
+     */
+    Future<Set<String>> collectIconHashes() {
+        return executorService.submit(() -> {
+            flushPendingWrites();
+            archiveOldEntries();
+            trimJournal();
+            final Set<String> hashes = new HashSet<>(database.historyDao().getIconHashes());
+            archive.forEach((entry, visitTimes) -> {
+                if (entry.getIconHash() != null) {
+                    hashes.add(entry.getIconHash());
+                }
+                return true;
+            });
+            return hashes;
+        });
+    }
+
+    /**
+     * Optimizes the database file, for when the device is idle: updates the statistics
+     * the query planner uses, rebuilds the file without its free pages and folds the
+     * write-ahead log back into it. Does nothing in ephemeral mode.
+     *
+     * @return The number of bytes the database files shrank by, once done in the background.
+     */
+    Future<Long> optimizeDatabase() {
+        return executorService.submit(() -> {
+            if (ephemeral) {
+                return 0L;
+            }
+            flushPendingWrites();
+            File file = context.getDatabasePath(database.getOpenHelper().getDatabaseName());
+            long sizeBefore = getDatabaseSize(file);
+            SupportSQLiteDatabase sql = database.getOpenHelper().getWritableDatabase();
+            sql.execSQL("ANALYZE");
+            sql.execSQL("VACUUM");
+            try (Cursor cursor = sql.query("PRAGMA wal_checkpoint(TRUNCATE)")) {
+                cursor.moveToFirst();
+            }
+            long reclaimed = sizeBefore - getDatabaseSize(file);
+            Log.d(TAG, "Optimized history database, reclaimed " + reclaimed + " bytes");
+            return reclaimed;
+        });
+    }
+
+    private static long getDatabaseSize(File file) {
+        return file.length() + new File(file.getPath() + "-wal").length();
+    }
+
+    private SharedPreferences journalPrefs() {
+        return context.getSharedPreferences(JOURNAL_PREFS, Context.MODE_PRIVATE);
+    }
 
-        @androidx.room.Query("DELETE FROM history")
-        void deleteAll();
-        
-        @androidx.room.Query("SELECT * FROM history ORDER BY timestamp ASC LIMIT :count")
-        List<HistoryEntry> getOldestEntriesExceedingLimit(int count);
+    private static boolean isInHostRange(String revHost, String fromRevHost, String toRevHost) {
+        return revHost != null && revHost.compareTo(fromRevHost) >= 0 && revHost.compareTo(toRevHost) < 0;
     }
 }
@@ -0,0 +1,468 @@
+package com.noctusoft.webviewbrowser;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.noctusoft.webviewbrowser.db.AppDatabase;
+import com.noctusoft.webviewbrowser.model.HistoryEntry;
+import com.noctusoft.webviewbrowser.model.JournalRecord;
+import com.noctusoft.webviewbrowser.model.Visit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.jsoup.parser.Parser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads and writes history export files.
+ *
+ * <p>The export format has one JSON object per line: a header line, then one line per
+ * entry with its URL, title, favicon hash and visit times. Both directions stream, so
+ * only one batch of entries is held in memory at a time.</p>
+ *
+ * <p>A change file, written from the change journal, has the same format with the
+ * header naming the journal sequence numbers it covers. Its lines are visits in the
+ * entry format and changes with an "op" of "update", "delete", "deleteSite" or "clear",
+ * which the importer applies in order. The header of a full export names the sequence
+ * number it is current to, so change files can follow it.</p>
+ *
+ * <p>Besides its own files, the importer reads bookmark files in the Netscape format
+ * that Chrome, Firefox and others export, and the browser history JSON of Google
+ * Takeout.</p>
+ *
+ * <p>{@link HistoryManager} runs transfers on its own thread.</p>
+ */
+class HistoryTransfer {
+    private static final String FORMAT_NAME = "webviewbrowser-history";
+    // Version 2 added change files and the journal sequence numbers in the header
+    private static final int FORMAT_VERSION = 2;
+    private static final String HEADER_PREFIX = "{\"format\":\"" + FORMAT_NAME + "\"";
+    private static final int BATCH_SIZE = 500;
+    // Characters looked at to detect the format of an import
+    private static final int SNIFF_LENGTH = 256;
+
+    private static final Pattern BOOKMARK_PATTERN = Pattern.compile("<A\\s([^>]*)>(.*?)</A>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE_PATTERN = Pattern.compile("([A-Z_]+)=\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Receives imported visits in batches, and the other changes of change files in
+     * order with them.
+     */
+    interface HistorySink {
+        /**
+         * @param visits A batch of visits, one entry per visit
+         */
+        void write(List<HistoryEntry> visits);
+
+        /**
+         * @param url The URL of the entry
+         * @param title The new title, or null to keep it
+         * @param iconHash The new favicon hash, or null to keep it
+         */
+        void update(String url, String title, String iconHash);
+
+        /**
+         * @param url The URL of the entry to delete
+         */
+        void delete(String url);
+
+        /**
+         * @param site The host whose entries, and those of its subdomains, are deleted
+         */
+        void deleteSite(String site);
+
+        /**
+         * Deletes the whole history.
+         */
+        void clear();
+    }
+
+    private HistoryTransfer() {
+    }
+
+    /**
+     * Writes the whole history, archived entries first, then the database in id order.
+     *
+     * @param database The database to read from.
+     * @param archive The archive to read from.
+     * @param throughSeq The last journal sequence number the history reflects.
+     * @param out The stream to write to; it is not closed.
+     * @return The number of entries written.
+     */
+    static int exportHistory(AppDatabase database, HistoryArchive archive, long throughSeq, OutputStream out)
+            throws IOException, JSONException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writeHeader(writer, 0, throughSeq);
+
+        final int[] count = {0};
+        final Exception[] error = {null};
+        archive.forEach((entry, visitTimes) -> {
+            try {
+                writeEntry(writer, entry, visitTimes);
+                count[0]++;
+                return true;
+            } catch (IOException | JSONException e) {
+                error[0] = e;
+                return false;
+            }
+        });
+        if (error[0] instanceof IOException) {
+            throw (IOException) error[0];
+        } else if (error[0] != null) {
+            throw (JSONException) error[0];
+        }
+
+        long lastId = 0;
+        List<HistoryEntry> batch;
+        do {
+            batch = database.historyDao().getEntriesAfterId(lastId, BATCH_SIZE);
+            if (batch.isEmpty()) {
+                break;
+            }
+            long batchLastId = batch.get(batch.size() - 1).getId();
+            List<Visit> visits = database.visitDao().getVisitsInRange(lastId, batchLastId);
+
+            int v = 0;
+            for (HistoryEntry entry : batch) {
+                int start = v;
+                while (v < visits.size() && visits.get(v).getHistoryId() == entry.getId()) {
+                    v++;
+                }
+                long[] visitTimes = new long[v - start];
+                for (int i = start; i < v; i++) {
+                    visitTimes[i - start] = visits.get(i).getTimestamp();
+                }
+                writeEntry(writer, entry, visitTimes);
+                count[0]++;
+            }
+            lastId = batchLastId;
+        } while (batch.size() == BATCH_SIZE);
+
+        writer.flush();
+        return count[0];
+    }
+
+    /**
+     * Writes the journal records in a range of sequence numbers as a change file.
+     *
+     * @param database The database to read from.
+     * @param afterSeq Records after this sequence number are written.
+     * @param throughSeq Records up to and including this sequence number are written.
+     * @param out The stream to write to; it is not closed.
+     * @return The number of records written.
+     */
+    static int exportChanges(AppDatabase database, long afterSeq, long throughSeq, OutputStream out)
+            throws IOException, JSONException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writeHeader(writer, afterSeq, throughSeq);
+
+        int count = 0;
+        long lastSeq = afterSeq;
+        List<JournalRecord> batch;
+        do {
+            batch = database.journalDao().getRecordsAfter(lastSeq, BATCH_SIZE);
+            for (JournalRecord record : batch) {
+                if (record.getSeq() > throughSeq) {
+                    break;
+                }
+                writeRecord(writer, record);
+                count++;
+            }
+            if (!batch.isEmpty()) {
+                lastSeq = batch.get(batch.size() - 1).getSeq();
+            }
+        } while (batch.size() == BATCH_SIZE && lastSeq < throughSeq);
+
+        writer.flush();
+        return count;
+    }
+
+    private static void writeHeader(Writer writer, long afterSeq, long throughSeq)
+            throws IOException, JSONException {
+        JSONObject header = new JSONObject();
+        header.put("format", FORMAT_NAME);
+        header.put("version", FORMAT_VERSION);
+        if (afterSeq > 0) {
+            header.put("since", afterSeq);
+        }
+        header.put("through", throughSeq);
+        writer.write(header.toString());
+        writer.write('\n');
+    }
+
+    private static void writeRecord(Writer writer, JournalRecord record) throws IOException, JSONException {
+        if (record.getOp() == JournalRecord.OP_VISIT) {
+            writeEntry(writer, new HistoryEntry(record.getUrl(), record.getTitle(), record.getTimestamp(),
+                    record.getIconHash()), new long[]{record.getTimestamp()});
+            return;
+        }
+        JSONObject line = new JSONObject();
+        switch (record.getOp()) {
+            case JournalRecord.OP_UPDATE:
+                line.put("op", "update");
+                line.put("url", record.getUrl());
+                line.putOpt("title", record.getTitle());
+                line.putOpt("iconHash", record.getIconHash());
+                break;
+            case JournalRecord.OP_DELETE:
+                line.put("op", "delete");
+                line.put("url", record.getUrl());
+                break;
+            case JournalRecord.OP_DELETE_SITE:
+                line.put("op", "deleteSite");
+                line.put("site", record.getUrl());
+                break;
+            case JournalRecord.OP_CLEAR:
+                line.put("op", "clear");
+                break;
+            default:
+                return;
+        }
+        line.put("timestamp", record.getTimestamp());
+        writer.write(line.toString());
+        writer.write('\n');
+    }
+
+    private static void writeEntry(Writer writer, HistoryEntry entry, long[] visitTimes)
+            throws IOException, JSONException {
+        JSONObject line = new JSONObject();
+        line.put("url", entry.getUrl());
+        if (entry.getTitle() != null) {
+            line.put("title", entry.getTitle());
+        }
+        if (entry.getIconHash() != null) {
+            line.put("iconHash", entry.getIconHash());
+        }
+        line.put("timestamp", entry.getTimestamp());
+        JSONArray visits = new JSONArray();
+        for (long visitTime : visitTimes) {
+            visits.put(visitTime);
+        }
+        line.put("visits", visits);
+        writer.write(line.toString());
+        writer.write('\n');
+    }
+
+    /**
+     * Reads visits from an export or change file of this app, a Netscape bookmark file or
+     * a Google Takeout browser history file, detected from its start.
+     *
+     * @param in The stream to read from; it is not closed.
+     * @param sink Receives the visits in batches, and the changes of a change file.
+     * @return The number of visits and changes read.
+     */
+    static int importHistory(InputStream in, HistorySink sink) throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        reader.mark(SNIFF_LENGTH);
+        char[] start = new char[SNIFF_LENGTH];
+        int length = reader.read(start);
+        reader.reset();
+        String head = length > 0 ? new String(start, 0, length).trim() : "";
+
+        if (head.startsWith(HEADER_PREFIX)) {
+            return importExport(reader, sink);
+        } else if (head.startsWith("<")) {
+            return importBookmarks(reader, sink);
+        } else if (head.startsWith("{")) {
+            return importTakeout(reader, sink);
+        }
+        throw new IOException("Unknown history file format");
+    }
+
+    /**
+     * Reads a file written by {@link #exportHistory} or {@link #exportChanges}.
+     */
+    private static int importExport(BufferedReader reader, HistorySink sink) throws IOException, JSONException {
+        JSONObject header = new JSONObject(reader.readLine());
+        if (header.getInt("version") > FORMAT_VERSION) {
+            throw new IOException("Unsupported history file version " + header.getInt("version"));
+        }
+
+        Batch batch = new Batch(sink);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            JSONObject entry = new JSONObject(line);
+            String op = entry.optString("op", null);
+            if (op != null) {
+                // Changes apply in order with the visits around them
+                batch.flush();
+                if (op.equals("update")) {
+                    sink.update(entry.getString("url"), entry.optString("title", null),
+                            entry.optString("iconHash", null));
+                } else if (op.equals("delete")) {
+                    sink.delete(entry.getString("url"));
+                } else if (op.equals("deleteSite")) {
+                    sink.deleteSite(entry.getString("site"));
+                } else if (op.equals("clear")) {
+                    sink.clear();
+                } else {
+                    continue;
+                }
+                batch.count++;
+                continue;
+            }
+            String url = entry.getString("url");
+            String title = entry.optString("title", null);
+            String iconHash = entry.optString("iconHash", null);
+            JSONArray visits = entry.optJSONArray("visits");
+            if (visits == null || visits.length() == 0) {
+                batch.add(new HistoryEntry(url, title, entry.getLong("timestamp"), iconHash));
+            } else {
+                for (int i = 0; i < visits.length(); i++) {
+                    batch.add(new HistoryEntry(url, title, visits.getLong(i), iconHash));
+                }
+            }
+        }
+        return batch.finish();
+    }
+
+    /**
+     * Reads a bookmark file in the Netscape format, one visit per bookmark at the time it
+     * was last visited or added. Browsers write one bookmark per line.
+     */
+    private static int importBookmarks(BufferedReader reader, HistorySink sink) throws IOException {
+        Batch batch = new Batch(sink);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            Matcher bookmark = BOOKMARK_PATTERN.matcher(line);
+            while (bookmark.find()) {
+                String url = null;
+                long addDate = 0;
+                long lastVisit = 0;
+                Matcher attribute = ATTRIBUTE_PATTERN.matcher(bookmark.group(1));
+                while (attribute.find()) {
+                    String name = attribute.group(1).toUpperCase(Locale.ROOT);
+                    String value = attribute.group(2);
+                    if (name.equals("HREF")) {
+                        url = Parser.unescapeEntities(value, true);
+                    } else if (name.equals("ADD_DATE")) {
+                        addDate = parseLong(value);
+                    } else if (name.equals("LAST_VISIT")) {
+                        lastVisit = parseLong(value);
+                    }
+                }
+                if (isWebUrl(url)) {
+                    // Dates are in seconds
+                    long timestamp = (lastVisit > 0 ? lastVisit : addDate) * 1000;
+                    String title = Parser.unescapeEntities(bookmark.group(2), false);
+                    batch.add(new HistoryEntry(url, title.isEmpty() ? null : title,
+                            timestamp > 0 ? timestamp : System.currentTimeMillis(), null));
+                }
+            }
+        }
+        return batch.finish();
+    }
+
+    /**
+     * Reads the browser history of Google Takeout, a JSON object with an array of visits
+     * under "Browser History", without loading the whole document.
+     */
+    private static int importTakeout(Reader reader, HistorySink sink) throws IOException {
+        Batch batch = new Batch(sink);
+        JsonReader json = new JsonReader(reader);
+        json.beginObject();
+        while (json.hasNext()) {
+            if (!json.nextName().equals("Browser History")) {
+                json.skipValue();
+                continue;
+            }
+            json.beginArray();
+            while (json.hasNext()) {
+                String url = null;
+                String title = null;
+                long timeMicros = 0;
+                json.beginObject();
+                while (json.hasNext()) {
+                    String name = json.nextName();
+                    if (json.peek() == JsonToken.NULL) {
+                        json.skipValue();
+                    } else if (name.equals("url")) {
+                        url = json.nextString();
+                    } else if (name.equals("title")) {
+                        title = json.nextString();
+                    } else if (name.equals("time_usec")) {
+                        timeMicros = json.nextLong();
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+                if (isWebUrl(url) && timeMicros > 0) {
+                    batch.add(new HistoryEntry(url, title, timeMicros / 1000, null));
+                }
+            }
+            json.endArray();
+        }
+        json.endObject();
+        return batch.finish();
+    }
+
+    private static boolean isWebUrl(String url) {
+        if (url == null) {
+            return false;
+        }
+        String lower = url.toLowerCase(Locale.ROOT);
+        return lower.startsWith("http://") || lower.startsWith("https://");
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Collects visits and hands them to the sink in batches of {@link #BATCH_SIZE}.
+     */
+    private static class Batch {
+        private final HistorySink sink;
+        private List<HistoryEntry> visits = new ArrayList<>(BATCH_SIZE);
+        private int count;
+
+        Batch(HistorySink sink) {
+            this.sink = sink;
+        }
+
+        void add(HistoryEntry visit) {
+            visits.add(visit);
+            count++;
+            if (visits.size() >= BATCH_SIZE) {
+                sink.write(visits);
+                visits = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+
+        void flush() {
+            if (!visits.isEmpty()) {
+                sink.write(visits);
+                visits = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+
+        int finish() {
+            flush();
+            return count;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.noctusoft.webviewbrowser;
+
+import android.Manifest;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.webkit.WebView;
+
+import com.noctusoft.webviewbrowser.model.Favorite;
+import com.noctusoft.webviewbrowser.utils.EphemeralMode;
+import com.noctusoft.webviewbrowser.utils.PerfMetrics;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Job that maintains the app's storage while the device is idle and charging, so none
+ * of the work happens while the browser is in use. It deletes favicons nothing refers
+ * to, compacts the page text index, analyzes, vacuums and checkpoints the history
+ * database and clears the WebView cache once it grows large. Page content files saved
+ * to Downloads are the user's own and are only deleted when old if the user turned
+ * that on, see {@link #setSavedContentPruningEnabled}. The bytes reclaimed and the
+ * time taken are reported to {@link PerfMetrics}.
+ *
+ * <p>Each step runs on the thread of the manager that owns the data, so it is
+ * serialized with that manager's own writes. The job stops between steps when the
+ * device leaves idle.</p>
+ */
+public class MaintenanceJobService extends JobService {
+    private static final String TAG = "MaintenanceJobService";
+    private static final int JOB_ID = 1001;
+    private static final long INTERVAL_MS = 24 * 60 * 60 * 1000;
+    // The WebView cache is cleared once it is larger than this
+    private static final long CACHE_TRIM_THRESHOLD_BYTES = 50 * 1024 * 1024;
+    // Page content files saved to Downloads by BrowserActivity are kept this long
+    private static final long SAVED_CONTENT_RETENTION_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final String SAVED_CONTENT_PREFIX = "webpage_";
+    private static final String SAVED_CONTENT_SUFFIX = ".html";
+    private static final long STEP_TIMEOUT_MINUTES = 5;
+    private static final String PREFS_NAME = "maintenance";
+    private static final String KEY_PRUNE_SAVED_CONTENT = "prune_saved_content";
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean stopped;
+
+    /**
+     * Schedules the job to run about once a day while the device is idle and charging,
+     * unless it is already scheduled. The schedule survives reboots.
+     *
+     * @param context A context.
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null) {
+            return;
+        }
+        for (JobInfo pending : scheduler.getAllPendingJobs()) {
+            if (pending.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MS)
+                .setPersisted(true)
+                .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.w(TAG, "Could not schedule storage maintenance");
+        }
+    }
+
+    /**
+     * @param context A context.
+     * @return Whether old page content files saved to Downloads are deleted.
+     */
+    public static boolean isSavedContentPruningEnabled(Context context) {
+        return prefs(context).getBoolean(KEY_PRUNE_SAVED_CONTENT, false);
+    }
+
+    /**
+     * Sets whether page content files saved to Downloads are deleted once they are a
+     * week old. Off unless the user turns it on.
+     *
+     * @param context A context.
+     * @param enabled true to delete old files.
+     */
+    public static void setSavedContentPruningEnabled(Context context, boolean enabled) {
+        prefs(context).edit().putBoolean(KEY_PRUNE_SAVED_CONTENT, enabled).apply();
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        if (EphemeralMode.isActive(this)) {
+            // Nothing is stored in this mode
+            return false;
+        }
+        stopped = false;
+        executorService.execute(() -> {
+            runMaintenance();
+            jobFinished(params, false);
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        stopped = true;
+        // Run again at the next idle time
+        return true;
+    }
+
+    @Override
+    public void onDestroy() {
+        executorService.shutdown();
+        super.onDestroy();
+    }
+
+    /**
+     * Runs the maintenance steps in order. Must run on the executor thread.
+     */
+    private void runMaintenance() {
+        long start = PerfMetrics.start();
+        long reclaimed = 0;
+        try {
+            Context context = getApplicationContext();
+            HistoryManager historyManager = HistoryManager.getInstance(context);
+
+            // Collected first, so icons referred to by entries moved to the archive count
+            Set<String> iconHashes = await(historyManager.collectIconHashes());
+            iconHashes.addAll(callOnMainThread(this::getFavoriteIconHashes));
+            if (stopped) {
+                return;
+            }
+            reclaimed += await(FaviconManager.getInstance(context).deleteUnreferencedIcons(iconHashes));
+            if (stopped) {
+                return;
+            }
+            await(PageIndexManager.getInstance(context).compact());
+            if (stopped) {
+                return;
+            }
+            // Last of the database steps, so it also reclaims the pages they freed
+            reclaimed += await(historyManager.optimizeDatabase());
+            if (stopped) {
+                return;
+            }
+            reclaimed += trimWebViewCache();
+            if (stopped) {
+                return;
+            }
+            if (isSavedContentPruningEnabled(context)) {
+                reclaimed += deleteOldSavedContent();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error maintaining storage", e);
+        } finally {
+            PerfMetrics.record("maintenance.run", start);
+            PerfMetrics.recordValue("maintenance.bytes_reclaimed", reclaimed);
+        }
+    }
+
+    /**
+     * Gets the favicon hashes favorites refer to. Must run on the main thread.
+     */
+    private Set<String> getFavoriteIconHashes() {
+        Set<String> hashes = new HashSet<>();
+        for (Favorite favorite : FavoritesManager.getInstance(this).getAllFavorites()) {
+            if (favorite.getIconHash() != null) {
+                hashes.add(favorite.getIconHash());
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Clears the WebView cache if it is larger than {@link #CACHE_TRIM_THRESHOLD_BYTES}.
+     *
+     * @return The number of bytes freed.
+     */
+    private long trimWebViewCache() throws Exception {
+        File cacheDir = getCacheDir();
+        long sizeBefore = getSize(cacheDir);
+        if (sizeBefore < CACHE_TRIM_THRESHOLD_BYTES) {
+            return 0;
+        }
+        callOnMainThread(() -> {
+            // The cache is shared by all WebViews of the app
+            WebView webView = new WebView(getApplicationContext());
+            webView.clearCache(true);
+            webView.destroy();
+            return null;
+        });
+        long freed = Math.max(0, sizeBefore - getSize(cacheDir));
+        Log.d(TAG, "Cleared WebView cache, freed " + freed + " bytes");
+        return freed;
+    }
+
+    /**
+     * Deletes page content files saved to Downloads that are older than
+     * {@link #SAVED_CONTENT_RETENTION_MS}. Other files are left alone. Only runs when
+     * the user turned it on.
+     *
+     * @return The number of bytes freed.
+     */
+    private long deleteOldSavedContent() {
+        if (checkSelfPermission(Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
+            return 0;
+        }
+        File[] files = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS).listFiles();
+        if (files == null) {
+            return 0;
+        }
+        long cutoff = System.currentTimeMillis() - SAVED_CONTENT_RETENTION_MS;
+        long freed = 0;
+        int deleted = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(SAVED_CONTENT_PREFIX) && name.endsWith(SAVED_CONTENT_SUFFIX)
+                    && file.isFile() && file.lastModified() < cutoff) {
+                long length = file.length();
+                if (file.delete()) {
+                    freed += length;
+                    deleted++;
+                }
+            }
+        }
+        Log.d(TAG, "Deleted " + deleted + " old saved page files");
+        return freed;
+    }
+
+    private static long getSize(File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += getSize(child);
+            }
+        }
+        return size;
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        return future.get(STEP_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+    }
+
+    private <T> T callOnMainThread(Callable<T> callable) throws Exception {
+        FutureTask<T> task = new FutureTask<>(callable);
+        mainHandler.post(task);
+        return await(task);
+    }
+}
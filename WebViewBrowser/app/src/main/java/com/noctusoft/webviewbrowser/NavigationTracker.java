@@ -0,0 +1,283 @@
+package com.noctusoft.webviewbrowser;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.noctusoft.webviewbrowser.utils.UrlCanonicalizer;
+
+/**
+ * Turns the page loads and same-document navigations of a WebView into one history
+ * visit per user navigation.
+ *
+ * <p>A finished page is held as the pending visit for a short time before it is
+ * reported. If another load starts without the user asking for it, as for server
+ * redirects, meta refreshes and script redirects, the pending page was only a hop and
+ * the final page replaces it. A navigation the user asked for reports the pending
+ * visit at once. Same-document navigations from {@code history.pushState} replace a
+ * pending visit or start one; {@code history.replaceState} only changes the URL of a
+ * pending visit. At most {@link #MAX_SAME_DOCUMENT_VISITS} same-document visits are
+ * counted per page load, so a page cannot fill the history by calling pushState in a
+ * loop.</p>
+ *
+ * <p>Titles and favicons that arrive while a page is still loading, before it is the
+ * pending visit, are kept for that page and given to its visit when it finishes.</p>
+ *
+ * <p>Must be used on the main thread.</p>
+ */
+class NavigationTracker {
+
+    /**
+     * Receives the visits.
+     */
+    interface VisitListener {
+        /**
+         * Called on the main thread with a visit.
+         *
+         * @param url The final URL of the navigation.
+         * @param title The title of the page, or null.
+         * @param iconHash The content hash of the favicon, or null.
+         */
+        void onVisit(String url, String title, String iconHash);
+    }
+
+    private static final String TAG = "NavigationTracker";
+    // Time a finished page must stay before it counts as a visit rather than a redirect hop
+    private static final long SETTLE_DELAY_MS = 1500;
+    // Time a same-document navigation waits, so bursts of pushState calls count once
+    private static final long SAME_DOCUMENT_DELAY_MS = 1000;
+    // Same-document visits counted per page load, see onSameDocumentNavigation
+    private static final int MAX_SAME_DOCUMENT_VISITS = 50;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final VisitListener listener;
+    private final Runnable commitRunnable = this::commit;
+
+    private String pendingUrl;
+    private String pendingTitle;
+    private String pendingIconHash;
+    private int pendingHops;
+    // Whether the next load was requested by the user rather than the page
+    private boolean userNavigation;
+    // The URL reported for the current load, to ignore repeated finish events
+    private String committedUrl;
+    // Same-document visits started since the last page load
+    private int sameDocumentVisits;
+    // The main frame load that has started but not finished, and what arrived for it
+    private String loadingUrl;
+    private String loadingRedirectUrl;
+    private String loadingTitle;
+    private String loadingIconHash;
+
+    /**
+     * @param listener Receives the visits.
+     */
+    NavigationTracker(VisitListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Reports a navigation before it starts.
+     *
+     * @param byUser Whether the user asked for it, by typing, tapping a link or a button,
+     *               as opposed to a redirect or a script.
+     */
+    void onNavigationRequested(boolean byUser) {
+        if (byUser) {
+            // The page the user navigates away from was a real visit
+            commit();
+            userNavigation = true;
+        }
+    }
+
+    /**
+     * Reports that a page started loading in the main frame.
+     *
+     * @param url The URL of the page.
+     */
+    void onPageStarted(String url) {
+        handler.removeCallbacks(commitRunnable);
+        if (pendingUrl != null && !userNavigation) {
+            // Left before it settled without the user asking: a redirect hop
+            Log.d(TAG, "Redirect from " + pendingUrl + " to " + url);
+            pendingHops++;
+            pendingUrl = null;
+            pendingTitle = null;
+            pendingIconHash = null;
+        } else {
+            commit();
+        }
+        userNavigation = false;
+        committedUrl = null;
+        sameDocumentVisits = 0;
+        loadingUrl = url;
+        loadingRedirectUrl = null;
+        loadingTitle = null;
+        loadingIconHash = null;
+    }
+
+    /**
+     * Reports that a page finished loading in the main frame.
+     *
+     * @param url The URL of the page.
+     * @param title The title of the page, or null.
+     */
+    void onPageFinished(String url, String title) {
+        if (url == null || UrlCanonicalizer.isSameUrl(url, committedUrl)) {
+            return;
+        }
+        if (isLoading(url)) {
+            if (title == null) {
+                title = loadingTitle;
+            }
+            if (!UrlCanonicalizer.isSameUrl(url, pendingUrl) || loadingIconHash != null) {
+                pendingIconHash = loadingIconHash;
+            }
+        } else if (!UrlCanonicalizer.isSameUrl(url, pendingUrl)) {
+            pendingIconHash = null;
+        }
+        loadingUrl = null;
+        loadingRedirectUrl = null;
+        loadingTitle = null;
+        loadingIconHash = null;
+        pendingUrl = url;
+        pendingTitle = title;
+        schedule(SETTLE_DELAY_MS);
+    }
+
+    /**
+     * Reports a same-document navigation made with the History API.
+     *
+     * @param url The new URL of the document.
+     * @param title The title of the document, or null.
+     * @param replace Whether the current history item was replaced rather than a new one pushed.
+     */
+    void onSameDocumentNavigation(String url, String title, boolean replace) {
+        if (url == null) {
+            return;
+        }
+        if (replace) {
+            // Not a new visit; only corrects the URL of one that is not reported yet
+            if (pendingUrl != null) {
+                pendingUrl = url;
+            }
+            return;
+        }
+        if (pendingUrl == null && UrlCanonicalizer.isSameUrl(url, committedUrl)) {
+            // Such as a change of the fragment only
+            return;
+        }
+        if (pendingUrl == null && sameDocumentVisits >= MAX_SAME_DOCUMENT_VISITS) {
+            Log.w(TAG, "Too many same-document navigations, ignored " + url);
+            return;
+        }
+        if (pendingUrl != null) {
+            pendingHops++;
+        } else {
+            sameDocumentVisits++;
+        }
+        pendingUrl = url;
+        pendingTitle = title;
+        pendingIconHash = null;
+        schedule(SAME_DOCUMENT_DELAY_MS);
+    }
+
+    /**
+     * Gives the pending visit a new title, if it is for the given URL, or keeps it for
+     * the page that is loading.
+     *
+     * @param url The URL of the page the title belongs to.
+     * @param title The title of the page.
+     * @return true if the pending visit or the loading page took the title, false if it
+     *         has to be set on the history entry instead.
+     */
+    boolean onTitleChanged(String url, String title) {
+        if (pendingUrl != null && UrlCanonicalizer.isSameUrl(url, pendingUrl)) {
+            pendingTitle = title;
+            return true;
+        }
+        if (acceptForLoading(url)) {
+            loadingTitle = title;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gives the pending visit its favicon, if it is for the given URL, or keeps it for
+     * the page that is loading.
+     *
+     * @param url The URL of the page the icon belongs to.
+     * @param iconHash The content hash of the favicon.
+     * @return true if the pending visit or the loading page took the icon, false if it
+     *         has to be set on the history entry instead.
+     */
+    boolean setIconHash(String url, String iconHash) {
+        if (pendingUrl != null && UrlCanonicalizer.isSameUrl(url, pendingUrl)) {
+            pendingIconHash = iconHash;
+            return true;
+        }
+        if (acceptForLoading(url)) {
+            loadingIconHash = iconHash;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a title or favicon reported for a URL belongs to the loading page.
+     * Server redirects change the URL without a new start event, so a different URL is
+     * taken to be the redirect target and remembered.
+     */
+    private boolean acceptForLoading(String url) {
+        if (loadingUrl == null || url == null) {
+            return false;
+        }
+        if (!isLoading(url)) {
+            if (loadingRedirectUrl != null) {
+                return false;
+            }
+            loadingRedirectUrl = url;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a URL is that of the loading page, or its redirect target.
+     */
+    private boolean isLoading(String url) {
+        return loadingUrl != null && (UrlCanonicalizer.isSameUrl(url, loadingUrl)
+                || UrlCanonicalizer.isSameUrl(url, loadingRedirectUrl));
+    }
+
+    /**
+     * Reports the pending visit now, such as when the app goes to the background.
+     */
+    void flush() {
+        commit();
+    }
+
+    private void schedule(long delay) {
+        handler.removeCallbacks(commitRunnable);
+        handler.postDelayed(commitRunnable, delay);
+    }
+
+    private void commit() {
+        handler.removeCallbacks(commitRunnable);
+        if (pendingUrl == null) {
+            return;
+        }
+        if (pendingHops > 0) {
+            Log.d(TAG, "Coalesced " + pendingHops + " navigations into " + pendingUrl);
+        }
+        String url = pendingUrl;
+        String title = pendingTitle;
+        String iconHash = pendingIconHash;
+        committedUrl = url;
+        pendingUrl = null;
+        pendingTitle = null;
+        pendingIconHash = null;
+        pendingHops = 0;
+        listener.onVisit(url, title, iconHash);
+    }
+}
@@ -0,0 +1,402 @@
+package com.noctusoft.webviewbrowser;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.JsonReader;
+import android.util.Log;
+
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import com.noctusoft.webviewbrowser.db.AppDatabase;
+import com.noctusoft.webviewbrowser.db.Migrations;
+import com.noctusoft.webviewbrowser.db.PageContentDao;
+import com.noctusoft.webviewbrowser.model.HistoryEntry;
+import com.noctusoft.webviewbrowser.model.PageContent;
+import com.noctusoft.webviewbrowser.utils.FtsUtils;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Manager for the opt-in full-text index of visited page content.
+ *
+ * <p>When enabled, the HTML of each fully loaded page is handed over, its visible text is
+ * extracted with Jsoup on a background thread, deflated into page_content and added
+ * to the page_fts index under the id of the page's history entry. Pages wait a few
+ * seconds before they are indexed, so the history has written their entries; pages
+ * whose text did not change since they were last indexed are skipped.</p>
+ *
+ * <p>The index uses the stored text as external content but cannot read it back, since
+ * it is compressed, so this class removes old text from the index itself. Text of
+ * history entries that were deleted stays in the index until {@link #compact()}
+ * rebuilds it; searches only return entries that still exist.</p>
+ */
+public class PageIndexManager {
+    private static final String TAG = "PageIndexManager";
+    private static final String PREFS_NAME = "page_index";
+    private static final String PREF_ENABLED = "enabled";
+    // Time for the history to write the entry of a page before it is indexed
+    private static final long INDEX_DELAY_MS = 5000;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int MAX_TEXT_LENGTH = 200_000;
+    private static final int REBUILD_BATCH_SIZE = 100;
+    // Rebuild the index once this share of its documents belongs to deleted entries
+    private static final double MAX_STALE_RATIO = 0.25;
+    private static PageIndexManager instance;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private final ScheduledExecutorService executorService;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Opened on the executor thread when first needed
+    private AppDatabase database;
+
+    // Indexing state, only touched on the executor thread
+    private final List<PendingPage> pendingPages = new ArrayList<>();
+    private ScheduledFuture<?> scheduledIndex;
+    private boolean compactChecked;
+
+    /**
+     * The text of a page waiting for its history entry.
+     */
+    private static final class PendingPage {
+        final String url;
+        final String text;
+        int attempts;
+
+        PendingPage(String url, String text) {
+            this.url = url;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Gets the singleton instance of PageIndexManager.
+     *
+     * @param context The application context.
+     * @return The PageIndexManager instance.
+     */
+    public static synchronized PageIndexManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new PageIndexManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PageIndexManager(Context context) {
+        this.context = context;
+        this.preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.executorService = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+     * @return Whether visited pages are indexed. Off unless the user turned it on.
+     */
+    public boolean isEnabled() {
+        return preferences.getBoolean(PREF_ENABLED, false);
+    }
+
+    /**
+     * Turns indexing of visited pages on or off. Turning it off deletes the stored text
+     * and the index.
+     *
+     * @param enabled Whether to index visited pages.
+     */
+    public void setEnabled(boolean enabled) {
+        preferences.edit().putBoolean(PREF_ENABLED, enabled).apply();
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /**
+     * Queues a page for indexing, if indexing is enabled. Parsing and indexing happen in
+     * the background.
+     *
+     * @param url The URL of the page.
+     * @param html The HTML of the page as returned by evaluateJavascript, a JSON string.
+     */
+    public void indexPage(final String url, final String html) {
+        if (!isEnabled() || url == null || html == null || html.equals("null")
+                || !(url.startsWith("http://") || url.startsWith("https://"))) {
+            return;
+        }
+
+        executorService.execute(() -> {
+            try {
+                String text = extractText(decodeJsString(html));
+                if (text.isEmpty()) {
+                    return;
+                }
+                pendingPages.add(new PendingPage(url, text));
+                if (scheduledIndex == null) {
+                    scheduledIndex = executorService.schedule(this::indexPendingPages,
+                            INDEX_DELAY_MS, TimeUnit.MILLISECONDS);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error extracting page text", e);
+            }
+        });
+    }
+
+    /**
+     * Searches the indexed page text. The search runs in the background and the callback
+     * is invoked on the main thread.
+     *
+     * @param query The text typed by the user.
+     * @param limit The maximum number of results.
+     * @param callback Receives the entries of matching pages, highest frecency first.
+     */
+    public void search(final String query, final int limit, final HistoryManager.SearchCallback callback) {
+        final String matchQuery = FtsUtils.toPrefixQuery(query);
+        if (matchQuery == null || !isEnabled()) {
+            mainHandler.post(() -> callback.onSearchResults(query, new ArrayList<>()));
+            return;
+        }
+
+        executorService.execute(() -> {
+            List<HistoryEntry> results = new ArrayList<>();
+            try {
+                // Joining page_content drops documents of deleted entries
+                results = getDatabase().pageContentDao().getEntries(new SimpleSQLiteQuery(
+                        "SELECT history.* FROM page_fts "
+                                + "JOIN page_content ON page_content.historyId = page_fts.docid "
+                                + "JOIN history ON history.id = page_content.historyId "
+                                + "WHERE page_fts MATCH ? ORDER BY history.frecency DESC LIMIT ?",
+                        new Object[]{matchQuery, limit}));
+            } catch (Exception e) {
+                Log.e(TAG, "Error searching page text", e);
+            }
+            final List<HistoryEntry> finalResults = results;
+            mainHandler.post(() -> callback.onSearchResults(query, finalResults));
+        });
+    }
+
+    /**
+     * Rebuilds the index if many of its documents belong to deleted history entries.
+     * Runs in the background.
+     *
+     * @return Completes when the index is compacted, or found not to need it.
+     */
+    public Future<?> compact() {
+        return executorService.submit(() -> {
+            try {
+                compactIfNeeded();
+            } catch (Exception e) {
+                Log.e(TAG, "Error compacting page index", e);
+            }
+        });
+    }
+
+    /**
+     * Deletes all stored page text and the index.
+     */
+    public void clear() {
+        executorService.execute(() -> {
+            try {
+                pendingPages.clear();
+                final AppDatabase db = getDatabase();
+                db.runInTransaction(() -> {
+                    db.pageContentDao().deleteAll();
+                    recreateIndex(db.getOpenHelper().getWritableDatabase());
+                });
+                Log.d(TAG, "Page index cleared");
+            } catch (Exception e) {
+                Log.e(TAG, "Error clearing page index", e);
+            }
+        });
+    }
+
+    /**
+     * Indexes the queued pages whose history entries have been written, in one
+     * transaction. Must run on the executor thread.
+     */
+    private void indexPendingPages() {
+        scheduledIndex = null;
+        if (pendingPages.isEmpty() || !isEnabled()) {
+            pendingPages.clear();
+            return;
+        }
+
+        final List<PendingPage> pages = new ArrayList<>(pendingPages);
+        pendingPages.clear();
+        try {
+            final AppDatabase db = getDatabase();
+            if (!compactChecked) {
+                compactChecked = true;
+                compactIfNeeded();
+            }
+            db.runInTransaction(() -> {
+                SupportSQLiteDatabase sql = db.getOpenHelper().getWritableDatabase();
+                for (PendingPage page : pages) {
+                    HistoryEntry entry = db.historyDao().getEntryByUrlHash(HistoryEntry.hashUrl(page.url));
+                    if (entry != null) {
+                        writePage(db.pageContentDao(), sql, entry.getId(), page.text);
+                    } else if (++page.attempts < MAX_ATTEMPTS) {
+                        pendingPages.add(page);
+                    }
+                }
+            });
+            Log.d(TAG, "Indexed " + (pages.size() - pendingPages.size()) + " pages");
+        } catch (Exception e) {
+            Log.e(TAG, "Error indexing pages", e);
+        }
+
+        if (!pendingPages.isEmpty()) {
+            scheduledIndex = executorService.schedule(this::indexPendingPages,
+                    INDEX_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stores the text of a page and replaces its text in the index, unless it did not
+     * change. Must run in a transaction.
+     */
+    private void writePage(PageContentDao dao, SupportSQLiteDatabase sql, long historyId, String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(utf8);
+        long checksum = crc.getValue();
+
+        PageContent previous = dao.getContent(historyId);
+        if (previous != null) {
+            if (previous.getChecksum() == checksum) {
+                return;
+            }
+            // The index needs the old text to remove its terms
+            try {
+                sql.execSQL("INSERT INTO page_fts(page_fts, docid, text) VALUES('delete', ?, ?)",
+                        new Object[]{historyId, inflate(previous.getText())});
+            } catch (DataFormatException e) {
+                // Its terms stay behind until the index is rebuilt
+                Log.w(TAG, "Could not read the previous text of entry " + historyId, e);
+            }
+        }
+        dao.insert(new PageContent(historyId, checksum, deflate(utf8), System.currentTimeMillis()));
+        sql.execSQL("INSERT INTO page_fts(docid, text) VALUES(?, ?)", new Object[]{historyId, text});
+    }
+
+    /**
+     * Rebuilds the index from the stored text if too many of its documents are stale.
+     * Must run on the executor thread.
+     */
+    private void compactIfNeeded() throws DataFormatException {
+        final AppDatabase db = getDatabase();
+        SupportSQLiteDatabase sql = db.getOpenHelper().getWritableDatabase();
+        int indexed;
+        try (Cursor cursor = sql.query("SELECT COUNT(*) FROM page_fts_docsize")) {
+            indexed = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+        int stored = db.pageContentDao().count();
+        if (indexed == 0 || indexed - stored < indexed * MAX_STALE_RATIO) {
+            return;
+        }
+
+        db.beginTransaction();
+        try {
+            recreateIndex(sql);
+            long lastId = 0;
+            List<PageContent> batch;
+            do {
+                batch = db.pageContentDao().getContentsAfter(lastId, REBUILD_BATCH_SIZE);
+                for (PageContent content : batch) {
+                    sql.execSQL("INSERT INTO page_fts(docid, text) VALUES(?, ?)",
+                            new Object[]{content.getHistoryId(), inflate(content.getText())});
+                    lastId = content.getHistoryId();
+                }
+            } while (batch.size() == REBUILD_BATCH_SIZE);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Log.d(TAG, "Rebuilt page index: " + stored + " of " + indexed + " documents kept");
+    }
+
+    private static void recreateIndex(SupportSQLiteDatabase sql) {
+        sql.execSQL("DROP TABLE IF EXISTS page_fts");
+        Migrations.createPageFts(sql);
+    }
+
+    private AppDatabase getDatabase() {
+        if (database == null) {
+            database = AppDatabase.getInstance(context);
+        }
+        return database;
+    }
+
+    /**
+     * Extracts the text a reader sees from the HTML of a page.
+     */
+    static String extractText(String html) {
+        Document document = Jsoup.parse(html);
+        document.select("script, style, noscript, template, svg, [hidden], [aria-hidden=true]").remove();
+        String text = document.body() != null ? document.body().text() : document.text();
+        return text.length() > MAX_TEXT_LENGTH ? text.substring(0, MAX_TEXT_LENGTH) : text;
+    }
+
+    /**
+     * Decodes the JSON string evaluateJavascript returns, in which characters such as '<'
+     * are escaped as unicode.
+     */
+    private static String decodeJsString(String value) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(value))) {
+            reader.setLenient(true);
+            return reader.nextString();
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3 + 16);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String inflate(byte[] data) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated page text");
+                }
+                out.write(buffer, 0, count);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            inflater.end();
+        }
+    }
+}
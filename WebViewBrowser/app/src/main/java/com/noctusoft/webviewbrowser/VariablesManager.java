@@ -4,6 +4,8 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
 
+import com.noctusoft.webviewbrowser.utils.EphemeralMode;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -12,6 +14,7 @@ import java.util.Set;
 
 /**
  * Manager class for user-defined variables that can be inserted into web forms.
+ * In ephemeral mode, see {@link EphemeralMode}, changes are kept in memory only.
  */
 public class VariablesManager {
     private static final String TAG = "VariablesManager";
@@ -19,6 +22,7 @@ public class VariablesManager {
     private static VariablesManager instance;
 
     private final SharedPreferences sharedPreferences;
+    private final boolean ephemeral;
     private Map<String, String> variables = new HashMap<>();
 
     /**
@@ -36,6 +40,7 @@ public class VariablesManager {
 
     private VariablesManager(Context context) {
         sharedPreferences = context.getSharedPreferences(SHARED_PREFS_NAME, Context.MODE_PRIVATE);
+        ephemeral = EphemeralMode.isActive(context);
         loadVariables();
         setupDefaultVariables();
     }
@@ -125,9 +130,12 @@ public class VariablesManager {
     }
 
     /**
-     * Saves variables to SharedPreferences.
+     * Saves variables to SharedPreferences, unless in ephemeral mode.
      */
     private void saveVariables() {
+        if (ephemeral) {
+            return;
+        }
         try {
             SharedPreferences.Editor editor = sharedPreferences.edit();
             
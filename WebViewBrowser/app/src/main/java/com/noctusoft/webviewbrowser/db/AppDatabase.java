@@ -2,22 +2,39 @@ package com.noctusoft.webviewbrowser.db;
 
 import android.content.Context;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
-import androidx.room.TypeConverters;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
-import com.noctusoft.webviewbrowser.model.DateConverter;
+import com.noctusoft.webviewbrowser.model.DailyStats;
+import com.noctusoft.webviewbrowser.model.DomainStats;
+import com.noctusoft.webviewbrowser.model.Favicon;
 import com.noctusoft.webviewbrowser.model.HistoryEntry;
+import com.noctusoft.webviewbrowser.model.HistoryFts;
+import com.noctusoft.webviewbrowser.model.HourlyStats;
+import com.noctusoft.webviewbrowser.model.JournalRecord;
+import com.noctusoft.webviewbrowser.model.PageContent;
+import com.noctusoft.webviewbrowser.model.Visit;
+import com.noctusoft.webviewbrowser.utils.EphemeralMode;
 
 /**
  * Main database class for the application.
+ * Holds history and favicons in a single SQLite file using write-ahead logging,
+ * so readers are not blocked by the batched history writes. History statistics are
+ * kept in aggregate tables that are updated along with the history, and its changes
+ * in a journal that incremental backups read from. In ephemeral mode, see
+ * {@link EphemeralMode}, the database is held in memory and starts empty.
  */
-@Database(entities = {HistoryEntry.class}, version = 1, exportSchema = false)
-@TypeConverters({DateConverter.class})
+@Database(entities = {HistoryEntry.class, HistoryFts.class, Visit.class, Favicon.class,
+        DailyStats.class, HourlyStats.class, DomainStats.class, PageContent.class, JournalRecord.class}, version = 12)
 public abstract class AppDatabase extends RoomDatabase {
 
-    private static final String DATABASE_NAME = "webviewbrowser_db";
+    // Name of the file the history database has always used, so existing data is kept
+    private static final String DATABASE_NAME = "browser_history";
+    // Separate database file created by earlier versions, no longer used
+    private static final String LEGACY_DATABASE_NAME = "webviewbrowser_db";
     private static volatile AppDatabase INSTANCE;
 
     /**
@@ -27,6 +44,41 @@ public abstract class AppDatabase extends RoomDatabase {
      */
     public abstract HistoryDao historyDao();
 
+    /**
+     * Get the DAO for visits to history entries.
+     *
+     * @return The visit DAO
+     */
+    public abstract VisitDao visitDao();
+
+    /**
+     * Get the DAO for favicon operations.
+     *
+     * @return The favicon DAO
+     */
+    public abstract FaviconDao faviconDao();
+
+    /**
+     * Get the DAO for history statistics.
+     *
+     * @return The statistics DAO
+     */
+    public abstract StatsDao statsDao();
+
+    /**
+     * Get the DAO for the stored text of visited pages.
+     *
+     * @return The page content DAO
+     */
+    public abstract PageContentDao pageContentDao();
+
+    /**
+     * Get the DAO for the history change journal.
+     *
+     * @return The journal DAO
+     */
+    public abstract JournalDao journalDao();
+
     /**
      * Get the database instance, creating it if necessary.
      *
@@ -37,11 +89,31 @@ public abstract class AppDatabase extends RoomDatabase {
         if (INSTANCE == null) {
             synchronized (AppDatabase.class) {
                 if (INSTANCE == null) {
-                    INSTANCE = Room.databaseBuilder(
-                            context.getApplicationContext(),
-                            AppDatabase.class,
-                            DATABASE_NAME)
-                            .fallbackToDestructiveMigration()
+                    Context appContext = context.getApplicationContext();
+                    RoomDatabase.Builder<AppDatabase> builder;
+                    if (EphemeralMode.isActive(appContext)) {
+                        // Nothing of the session reaches the disk
+                        builder = Room.inMemoryDatabaseBuilder(appContext, AppDatabase.class);
+                    } else {
+                        if (appContext.getDatabasePath(LEGACY_DATABASE_NAME).exists()) {
+                            appContext.deleteDatabase(LEGACY_DATABASE_NAME);
+                        }
+                        builder = Room.databaseBuilder(
+                                appContext,
+                                AppDatabase.class,
+                                DATABASE_NAME)
+                                .addMigrations(Migrations.ALL)
+                                .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING);
+                    }
+
+                    INSTANCE = builder
+                            .addCallback(new Callback() {
+                                @Override
+                                public void onCreate(@NonNull SupportSQLiteDatabase db) {
+                                    // Not an entity, so Room does not create it
+                                    Migrations.createPageFts(db);
+                                }
+                            })
                             .build();
                 }
             }
@@ -0,0 +1,60 @@
+package com.noctusoft.webviewbrowser.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.noctusoft.webviewbrowser.model.Favicon;
+
+import java.util.List;
+
+/**
+ * Data Access Object for favicons.
+ */
+@Dao
+public interface FaviconDao {
+
+    /**
+     * Insert a favicon unless one with the same hash is already stored
+     *
+     * @param favicon The favicon to insert
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertIfAbsent(Favicon favicon);
+
+    /**
+     * Get the encoded image of a favicon
+     *
+     * @param hash The content hash of the favicon
+     * @return The encoded image, or null if not stored
+     */
+    @Query("SELECT data FROM favicons WHERE hash = :hash")
+    byte[] getData(String hash);
+
+    /**
+     * Get the hashes of all stored favicons
+     *
+     * @return List of content hashes
+     */
+    @Query("SELECT hash FROM favicons")
+    List<String> getAllHashes();
+
+    /**
+     * Get the total size of the encoded images of some favicons
+     *
+     * @param hashes The content hashes, at most 999
+     * @return The size in bytes
+     */
+    @Query("SELECT IFNULL(SUM(LENGTH(data)), 0) FROM favicons WHERE hash IN (:hashes)")
+    long getDataSize(List<String> hashes);
+
+    /**
+     * Delete favicons
+     *
+     * @param hashes The content hashes, at most 999
+     * @return The number of favicons deleted
+     */
+    @Query("DELETE FROM favicons WHERE hash IN (:hashes)")
+    int delete(List<String> hashes);
+}
@@ -8,6 +8,8 @@ import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 
 import com.noctusoft.webviewbrowser.model.HistoryEntry;
+import com.noctusoft.webviewbrowser.model.HistorySearchResult;
+import com.noctusoft.webviewbrowser.model.HostSummary;
 
 import java.util.List;
 
@@ -21,9 +23,27 @@ public interface HistoryDao {
      * Insert a new history entry
      * 
      * @param historyEntry The history entry to insert
+     * @return The row id assigned to the entry
      */
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insert(HistoryEntry historyEntry);
+    long insert(HistoryEntry historyEntry);
+
+    /**
+     * Record a new visit to an existing history entry, keeping its favicon if none is given
+     * 
+     * @param id The row id of the entry
+     * @param url The URL as visited
+     * @param title The page title
+     * @param timestamp The time of the visit in milliseconds since the epoch
+     * @param iconHash Content hash of the favicon, or null to keep the current one
+     * @param visitCount The visit count including this visit
+     * @param frecency The frecency including this visit
+     */
+    @Query("UPDATE history SET url = :url, title = :title, timestamp = :timestamp, " +
+            "iconHash = IFNULL(:iconHash, iconHash), visitCount = :visitCount, frecency = :frecency " +
+            "WHERE id = :id")
+    void updateVisit(long id, String url, String title, long timestamp, String iconHash,
+                     int visitCount, long frecency);
     
     /**
      * Delete a history entry
@@ -32,6 +52,46 @@ public interface HistoryDao {
      */
     @Delete
     void delete(HistoryEntry historyEntry);
+
+    /**
+     * Delete all history entries up to and including a given entry, in (timestamp, id) order.
+     * This is a single range delete on the timestamp index.
+     * 
+     * @param timestamp Timestamp of the last entry to delete
+     * @param id Id of the last entry to delete
+     * @return The number of deleted entries
+     */
+    @Query("DELETE FROM history WHERE timestamp < :timestamp OR (timestamp = :timestamp AND id <= :id)")
+    int deleteUpTo(long timestamp, long id);
+
+    /**
+     * Delete the history entry for a URL
+     * 
+     * @param urlHash The URL hash of the entry, see {@link HistoryEntry#hashUrl}
+     */
+    @Query("DELETE FROM history WHERE urlHash = :urlHash")
+    void deleteByUrlHash(long urlHash);
+
+    /**
+     * Patch the title and favicon of the history entry for a URL in place, leaving
+     * the visit data alone
+     * 
+     * @param urlHash The URL hash of the entry
+     * @param title The page title, or null to keep the current one
+     * @param iconHash Content hash of the favicon, or null to keep the current one
+     * @return The number of updated rows, 0 if the URL is not in the history
+     */
+    @Query("UPDATE history SET title = IFNULL(:title, title), iconHash = IFNULL(:iconHash, iconHash) " +
+            "WHERE urlHash = :urlHash")
+    int updateMetadata(long urlHash, String title, String iconHash);
+    
+    /**
+     * Get the favicon hashes that history entries refer to
+     * 
+     * @return List of distinct content hashes
+     */
+    @Query("SELECT DISTINCT iconHash FROM history WHERE iconHash IS NOT NULL")
+    List<String> getIconHashes();
     
     /**
      * Delete all history entries
@@ -54,22 +114,153 @@ public interface HistoryDao {
      */
     @Query("SELECT * FROM history ORDER BY timestamp DESC")
     LiveData<List<HistoryEntry>> getAllHistoryEntriesLive();
+
+    /**
+     * Get the most recent page of history entries
+     * 
+     * @param limit The page size
+     * @return List of history entries, most recent first
+     */
+    @Query("SELECT * FROM history ORDER BY timestamp DESC, id DESC LIMIT :limit")
+    List<HistoryEntry> getFirstPage(int limit);
+
+    /**
+     * Get the page of history entries that follows a given entry, using the
+     * timestamp index, which orders rows with equal timestamps by id, instead of an offset
+     * 
+     * @param timestamp Timestamp of the last entry of the previous page
+     * @param id Id of the last entry of the previous page
+     * @param limit The page size
+     * @return List of history entries, most recent first
+     */
+    @Query("SELECT * FROM history " +
+            "WHERE timestamp <= :timestamp AND (timestamp < :timestamp OR id < :id) " +
+            "ORDER BY timestamp DESC, id DESC LIMIT :limit")
+    List<HistoryEntry> getPageAfter(long timestamp, long id, int limit);
+    
+    /**
+     * Get the history entries that follow a given id, in id order, for reading the whole
+     * table in batches
+     * 
+     * @param id The id of the last entry of the previous batch, 0 for the first batch
+     * @param limit The batch size
+     * @return List of history entries, in id order
+     */
+    @Query("SELECT * FROM history WHERE id > :id ORDER BY id LIMIT :limit")
+    List<HistoryEntry> getEntriesAfterId(long id, int limit);
+
+    /**
+     * Get the most recent history entries from a given time on, using the timestamp index
+     * 
+     * @param timestamp Only entries at least this recent are returned
+     * @param limit The maximum number of entries
+     * @return List of history entries, most recent first
+     */
+    @Query("SELECT * FROM history WHERE timestamp >= :timestamp ORDER BY timestamp DESC, id DESC LIMIT :limit")
+    List<HistoryEntry> getEntriesSince(long timestamp, int limit);
+
+    /**
+     * Get the oldest history entries from before a given time
+     * 
+     * @param timestamp Only entries older than this are returned
+     * @param limit The maximum number of entries
+     * @return List of history entries, oldest first
+     */
+    @Query("SELECT * FROM history WHERE timestamp < :timestamp ORDER BY timestamp ASC, id ASC LIMIT :limit")
+    List<HistoryEntry> getEntriesBefore(long timestamp, int limit);
+
+    /**
+     * Get the timestamp of the history entry at a given position, most recent first
+     * 
+     * @param position The zero-based position
+     * @return The timestamp, or null if there are not that many entries
+     */
+    @Query("SELECT timestamp FROM history ORDER BY timestamp DESC LIMIT 1 OFFSET :position")
+    Long getTimestampAtPosition(int position);
+
+    /**
+     * Get the most frequently and recently visited history entries, using the frecency index
+     * 
+     * @param limit The maximum number of entries
+     * @return List of history entries, highest frecency first
+     */
+    @Query("SELECT * FROM history ORDER BY frecency DESC LIMIT :limit")
+    List<HistoryEntry> getTopSites(int limit);
     
     /**
-     * Search history entries by title or URL
+     * Search history entries using the full-text index, with match statistics for ranking
      * 
-     * @param query The search query
-     * @return List of matching history entries
+     * @param matchQuery The FTS MATCH expression, see {@link com.noctusoft.webviewbrowser.utils.FtsUtils#toPrefixQuery}
+     * @param limit The maximum number of candidates, highest frecency first
+     * @return List of matching history entries with their match statistics
      */
-    @Query("SELECT * FROM history WHERE title LIKE '%' || :query || '%' OR url LIKE '%' || :query || '%' ORDER BY timestamp DESC")
-    List<HistoryEntry> searchHistory(String query);
+    @Query("SELECT history.*, matchinfo(history_fts, 'pcx') AS matchInfo FROM history " +
+            "JOIN history_fts ON history.rowid = history_fts.rowid " +
+            "WHERE history_fts MATCH :matchQuery ORDER BY history.frecency DESC LIMIT :limit")
+    List<HistorySearchResult> searchWithMatchInfo(String matchQuery, int limit);
 
     /**
      * Get a history entry by URL
      * 
-     * @param url The URL to search for
+     * @param urlHash The URL hash of the entry
      * @return The history entry if found
      */
-    @Query("SELECT * FROM history WHERE url = :url LIMIT 1")
-    HistoryEntry getEntryByUrl(String url);
+    @Query("SELECT * FROM history WHERE urlHash = :urlHash")
+    HistoryEntry getEntryByUrlHash(long urlHash);
+
+    /**
+     * Get the entries of one host, most recent first, as a range read on the
+     * (revHost, timestamp) index
+     * 
+     * @param revHost The reversed host, see {@link com.noctusoft.webviewbrowser.utils.UrlCanonicalizer#reverseHost}
+     * @param limit The maximum number of entries
+     * @return The entries
+     */
+    @Query("SELECT * FROM history WHERE revHost = :revHost ORDER BY timestamp DESC LIMIT :limit")
+    List<HistoryEntry> getEntriesForHost(String revHost, int limit);
+
+    /**
+     * Get the entries of a range of reversed hosts, such as a domain and its subdomains,
+     * most recent first
+     * 
+     * @param fromRevHost The first reversed host, inclusive
+     * @param toRevHost The last reversed host, exclusive
+     * @param limit The maximum number of entries
+     * @return The entries
+     */
+    @Query("SELECT * FROM history WHERE revHost >= :fromRevHost AND revHost < :toRevHost " +
+            "ORDER BY timestamp DESC LIMIT :limit")
+    List<HistoryEntry> getEntriesForHostRange(String fromRevHost, String toRevHost, int limit);
+
+    /**
+     * Get the URLs of a range of reversed hosts
+     * 
+     * @param fromRevHost The first reversed host, inclusive
+     * @param toRevHost The last reversed host, exclusive
+     * @return The URLs
+     */
+    @Query("SELECT url FROM history WHERE revHost >= :fromRevHost AND revHost < :toRevHost")
+    List<String> getUrlsForHostRange(String fromRevHost, String toRevHost);
+
+    /**
+     * Delete the entries of a range of reversed hosts, along with their visits
+     * 
+     * @param fromRevHost The first reversed host, inclusive
+     * @param toRevHost The last reversed host, exclusive
+     * @return The number of entries deleted
+     */
+    @Query("DELETE FROM history WHERE revHost >= :fromRevHost AND revHost < :toRevHost")
+    int deleteHostRange(String fromRevHost, String toRevHost);
+
+    /**
+     * Get the history grouped by host, most recently visited host first. The grouping
+     * walks the (revHost, timestamp) index in order.
+     * 
+     * @param limit The maximum number of hosts
+     * @return One summary per host
+     */
+    @Query("SELECT revHost, COUNT(*) AS entryCount, SUM(visitCount) AS visitCount, " +
+            "MAX(timestamp) AS lastVisit FROM history WHERE revHost IS NOT NULL " +
+            "GROUP BY revHost ORDER BY lastVisit DESC LIMIT :limit")
+    List<HostSummary> getHostSummaries(int limit);
 }
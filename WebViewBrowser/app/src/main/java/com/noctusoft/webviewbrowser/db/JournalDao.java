@@ -0,0 +1,84 @@
+package com.noctusoft.webviewbrowser.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+
+import com.noctusoft.webviewbrowser.model.JournalRecord;
+
+import java.util.List;
+
+/**
+ * Data Access Object for the history change journal.
+ * Records are only added and removed, never changed.
+ */
+@Dao
+public interface JournalDao {
+
+    /**
+     * Append records to the journal
+     *
+     * @param records The records, in the order they happened
+     */
+    @Insert
+    void insertAll(List<JournalRecord> records);
+
+    /**
+     * Append a record to the journal
+     *
+     * @param record The record
+     * @return The sequence number of the record
+     */
+    @Insert
+    long insert(JournalRecord record);
+
+    /**
+     * Get the records after a sequence number
+     *
+     * @param afterSeq Records with a greater sequence number are returned
+     * @param limit Maximum number of records to return
+     * @return List of records, in sequence order
+     */
+    @Query("SELECT * FROM history_journal WHERE seq > :afterSeq ORDER BY seq LIMIT :limit")
+    List<JournalRecord> getRecordsAfter(long afterSeq, int limit);
+
+    /**
+     * Get the sequence number of the last record
+     *
+     * @return The sequence number, or 0 if the journal is empty
+     */
+    @Query("SELECT IFNULL(MAX(seq), 0) FROM history_journal")
+    long getLastSeq();
+
+    /**
+     * Delete the records of a URL, which a later delete record supersedes
+     *
+     * @param urlHash The hash of the URL, see {@link com.noctusoft.webviewbrowser.model.HistoryEntry#hashUrl}
+     */
+    @Query("DELETE FROM history_journal WHERE urlHash = :urlHash")
+    void deleteForUrl(long urlHash);
+
+    /**
+     * Delete the oldest records
+     *
+     * @param lastSeq Records up to and including this sequence number are deleted
+     * @return The number of records deleted
+     */
+    @Query("DELETE FROM history_journal WHERE seq <= :lastSeq")
+    int deleteUpTo(long lastSeq);
+
+    /**
+     * Get the sequence number below which a given number of records remain
+     *
+     * @param position The number of newer records to skip
+     * @return The sequence number, or null if there are not that many records
+     */
+    @Query("SELECT seq FROM history_journal ORDER BY seq DESC LIMIT 1 OFFSET :position")
+    Long getSeqAtPosition(int position);
+
+    /**
+     * Delete all records
+     */
+    @Query("DELETE FROM history_journal")
+    void deleteAll();
+}
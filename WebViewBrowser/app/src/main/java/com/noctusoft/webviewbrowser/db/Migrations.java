@@ -0,0 +1,349 @@
+package com.noctusoft.webviewbrowser.db;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import com.noctusoft.webviewbrowser.model.HistoryEntry;
+import com.noctusoft.webviewbrowser.utils.FrecencyUtils;
+import com.noctusoft.webviewbrowser.utils.UrlCanonicalizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Schema migrations for {@link AppDatabase}.
+ * Version numbers continue those of the history database that shipped before the
+ * two databases were merged, so existing installs upgrade in place.
+ */
+public final class Migrations {
+
+    private Migrations() {
+    }
+
+    /**
+     * Adds the full-text index over history titles and URLs.
+     */
+    public static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `history_fts` USING FTS4("
+                    + "`url` TEXT NOT NULL, `title` TEXT, tokenize=unicode61, content=`history`, prefix=`2,3`)");
+            createHistoryFtsTriggers(db);
+            db.execSQL("INSERT INTO `history_fts`(`history_fts`) VALUES('rebuild')");
+        }
+    };
+
+    /**
+     * Adds the index used for keyset paging of the history list.
+     */
+    public static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_history_timestamp_id` ON `history` (`timestamp`, `id`)");
+        }
+    };
+
+    /**
+     * Moves favicons out of history rows into the content-addressed favicon table.
+     * Icons were never recorded in the old iconData column, so it is dropped rather
+     * than converted. Row ids are kept so the full-text index stays valid.
+     */
+    public static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `favicons` (`hash` TEXT NOT NULL, `data` BLOB NOT NULL, "
+                    + "`width` INTEGER NOT NULL, `height` INTEGER NOT NULL, PRIMARY KEY(`hash`))");
+
+            db.execSQL("CREATE TABLE IF NOT EXISTS `history_new` (`id` TEXT NOT NULL, `url` TEXT NOT NULL, "
+                    + "`title` TEXT, `timestamp` INTEGER, `iconHash` TEXT, PRIMARY KEY(`id`))");
+            db.execSQL("INSERT INTO `history_new` (`rowid`, `id`, `url`, `title`, `timestamp`) "
+                    + "SELECT `rowid`, `id`, `url`, `title`, `timestamp` FROM `history`");
+            db.execSQL("DROP TABLE `history`");
+            db.execSQL("ALTER TABLE `history_new` RENAME TO `history`");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_history_timestamp_id` ON `history` (`timestamp`, `id`)");
+            createHistoryFtsTriggers(db);
+        }
+    };
+
+    /**
+     * Replaces the UUID keys of history rows with integer row ids, adds the unique URL
+     * hash and makes the timestamp a non-null integer. The hash is computed in Java, so
+     * rows are copied one by one, oldest first; where two old rows normalize to the same
+     * URL the most recent one is kept. Row ids change, so the full-text index is rebuilt.
+     */
+    public static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `history_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`url` TEXT NOT NULL, `urlHash` INTEGER NOT NULL, `title` TEXT, "
+                    + "`timestamp` INTEGER NOT NULL, `iconHash` TEXT)");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_history_urlHash` ON `history_new` (`urlHash`)");
+
+            try (Cursor cursor = db.query("SELECT `url`, `title`, IFNULL(`timestamp`, 0), `iconHash` "
+                    + "FROM `history` ORDER BY `timestamp` ASC")) {
+                while (cursor.moveToNext()) {
+                    String url = cursor.getString(0);
+                    db.execSQL("INSERT OR REPLACE INTO `history_new` (`url`, `urlHash`, `title`, `timestamp`, `iconHash`) "
+                                    + "VALUES (?, ?, ?, ?, ?)",
+                            new Object[]{url, HistoryEntry.hashUrl(url), cursor.getString(1),
+                                    cursor.getLong(2), cursor.getString(3)});
+                }
+            }
+
+            db.execSQL("DROP TABLE `history`");
+            db.execSQL("ALTER TABLE `history_new` RENAME TO `history`");
+            // The unique index was renamed along with its table
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_history_timestamp` ON `history` (`timestamp`)");
+            createHistoryFtsTriggers(db);
+            db.execSQL("INSERT INTO `history_fts`(`history_fts`) VALUES('rebuild')");
+        }
+    };
+
+    /**
+     * Adds the visits table and the visit count and frecency of history entries.
+     * Earlier versions kept only the last visit to each URL, so every entry starts out
+     * with that one visit, for which the frecency equals the visit time.
+     */
+    public static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `history` ADD COLUMN `visitCount` INTEGER NOT NULL DEFAULT 1");
+            db.execSQL("ALTER TABLE `history` ADD COLUMN `frecency` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("UPDATE `history` SET `frecency` = `timestamp`");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_history_frecency` ON `history` (`frecency`)");
+
+            db.execSQL("CREATE TABLE IF NOT EXISTS `visits` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`historyId` INTEGER NOT NULL, `timestamp` INTEGER NOT NULL, "
+                    + "FOREIGN KEY(`historyId`) REFERENCES `history`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_visits_historyId` ON `visits` (`historyId`)");
+            db.execSQL("INSERT INTO `visits` (`historyId`, `timestamp`) SELECT `id`, `timestamp` FROM `history`");
+        }
+    };
+
+    /**
+     * Makes visits unique per entry and time, so imported visits can be deduplicated.
+     */
+    public static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("DELETE FROM `visits` WHERE `id` NOT IN "
+                    + "(SELECT MIN(`id`) FROM `visits` GROUP BY `historyId`, `timestamp`)");
+            db.execSQL("DROP INDEX IF EXISTS `index_visits_historyId`");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_visits_historyId_timestamp` "
+                    + "ON `visits` (`historyId`, `timestamp`)");
+        }
+    };
+
+    /**
+     * Recomputes URL hashes from canonical URLs, which also drop default ports and
+     * tracking parameters, see {@link com.noctusoft.webviewbrowser.utils.UrlCanonicalizer}.
+     * Rows whose URLs now share a hash are merged into the most recent one, which takes
+     * over their visits. Visits at the same time as one of the kept row's are dropped, so
+     * the visit count of a merged row is counted again from its visits. The unique index
+     * is dropped while hashes change, so rows can swap hashes in any order.
+     */
+    public static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("DROP INDEX IF EXISTS `index_history_urlHash`");
+
+            List<long[]> rows = new ArrayList<>();
+            List<String> urls = new ArrayList<>();
+            try (Cursor cursor = db.query("SELECT `id`, `url`, `urlHash`, `frecency` "
+                    + "FROM `history` ORDER BY `timestamp` DESC, `id` DESC")) {
+                while (cursor.moveToNext()) {
+                    rows.add(new long[]{cursor.getLong(0), cursor.getLong(2), cursor.getLong(3)});
+                    urls.add(cursor.getString(1));
+                }
+            }
+
+            // Kept row per new hash: id, frecency
+            Map<Long, long[]> kept = new HashMap<>();
+            Set<Long> merged = new HashSet<>();
+            for (int i = 0; i < rows.size(); i++) {
+                long[] row = rows.get(i);
+                long id = row[0];
+                long urlHash = HistoryEntry.hashUrl(urls.get(i));
+                long[] keeper = kept.get(urlHash);
+                if (keeper == null) {
+                    kept.put(urlHash, new long[]{id, row[2]});
+                    if (urlHash != row[1]) {
+                        db.execSQL("UPDATE `history` SET `urlHash` = ? WHERE `id` = ?", new Object[]{urlHash, id});
+                    }
+                    continue;
+                }
+
+                db.execSQL("UPDATE OR IGNORE `visits` SET `historyId` = ? WHERE `historyId` = ?",
+                        new Object[]{keeper[0], id});
+                db.execSQL("DELETE FROM `visits` WHERE `historyId` = ?", new Object[]{id});
+                db.execSQL("DELETE FROM `history` WHERE `id` = ?", new Object[]{id});
+                keeper[1] = FrecencyUtils.merge(keeper[1], row[2]);
+                db.execSQL("UPDATE `history` SET `frecency` = ? WHERE `id` = ?", new Object[]{keeper[1], keeper[0]});
+                merged.add(keeper[0]);
+            }
+            for (long id : merged) {
+                db.execSQL("UPDATE `history` SET `visitCount` = "
+                        + "(SELECT COUNT(*) FROM `visits` WHERE `historyId` = ?) WHERE `id` = ?", new Object[]{id, id});
+            }
+
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_history_urlHash` ON `history` (`urlHash`)");
+        }
+    };
+
+    /**
+     * Adds the reversed host of each entry and its index, for per-site queries.
+     * The host is extracted in Java, so rows are updated one by one.
+     */
+    public static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `history` ADD COLUMN `revHost` TEXT");
+
+            List<Long> ids = new ArrayList<>();
+            List<String> urls = new ArrayList<>();
+            try (Cursor cursor = db.query("SELECT `id`, `url` FROM `history`")) {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(0));
+                    urls.add(cursor.getString(1));
+                }
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                db.execSQL("UPDATE `history` SET `revHost` = ? WHERE `id` = ?",
+                        new Object[]{UrlCanonicalizer.getReversedHost(urls.get(i)), ids.get(i)});
+            }
+
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_history_revHost_timestamp` "
+                    + "ON `history` (`revHost`, `timestamp`)");
+        }
+    };
+
+    /**
+     * Adds the history statistics tables and fills them from the stored visits.
+     * Dwell times are not known for earlier visits and start at zero.
+     */
+    public static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `stats_daily` (`day` INTEGER NOT NULL, "
+                    + "`visitCount` INTEGER NOT NULL, `dwellTime` INTEGER NOT NULL, "
+                    + "`dwellCount` INTEGER NOT NULL, PRIMARY KEY(`day`))");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `stats_hourly` (`hour` INTEGER NOT NULL, "
+                    + "`visitCount` INTEGER NOT NULL, PRIMARY KEY(`hour`))");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `stats_domains` (`domain` TEXT NOT NULL, "
+                    + "`visitCount` INTEGER NOT NULL, `dwellTime` INTEGER NOT NULL, "
+                    + "`dwellCount` INTEGER NOT NULL, `lastVisit` INTEGER NOT NULL, PRIMARY KEY(`domain`))");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_stats_domains_visitCount` "
+                    + "ON `stats_domains` (`visitCount`)");
+
+            // Local days and hours, as DailyStats.dayOf and HourlyStats.hourOf count them
+            db.execSQL("INSERT INTO `stats_daily` (`day`, `visitCount`, `dwellTime`, `dwellCount`) "
+                    + "SELECT CAST(julianday(`timestamp` / 1000, 'unixepoch', 'localtime') - 2440587.5 AS INTEGER) "
+                    + "AS `localDay`, COUNT(*), 0, 0 FROM `visits` GROUP BY `localDay`");
+            db.execSQL("INSERT INTO `stats_hourly` (`hour`, `visitCount`) "
+                    + "SELECT CAST(strftime('%H', `timestamp` / 1000, 'unixepoch', 'localtime') AS INTEGER) "
+                    + "AS `localHour`, COUNT(*) FROM `visits` GROUP BY `localHour`");
+
+            // Registrable domains are only known in Java
+            Map<String, long[]> domains = new HashMap<>();
+            try (Cursor cursor = db.query("SELECT `url`, `visitCount`, `timestamp` FROM `history`")) {
+                while (cursor.moveToNext()) {
+                    String domain = UrlCanonicalizer.getRegistrableDomain(cursor.getString(0));
+                    if (domain == null) {
+                        continue;
+                    }
+                    long[] sums = domains.get(domain);
+                    if (sums == null) {
+                        sums = new long[2];
+                        domains.put(domain, sums);
+                    }
+                    sums[0] += cursor.getInt(1);
+                    sums[1] = Math.max(sums[1], cursor.getLong(2));
+                }
+            }
+            for (Map.Entry<String, long[]> entry : domains.entrySet()) {
+                db.execSQL("INSERT INTO `stats_domains` (`domain`, `visitCount`, `dwellTime`, `dwellCount`, "
+                                + "`lastVisit`) VALUES (?, ?, 0, 0, ?)",
+                        new Object[]{entry.getKey(), entry.getValue()[0], entry.getValue()[1]});
+            }
+        }
+    };
+
+    /**
+     * Adds the stored text of visited pages and the full-text index over it.
+     */
+    public static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `page_content` (`historyId` INTEGER NOT NULL, "
+                    + "`checksum` INTEGER NOT NULL, `text` BLOB NOT NULL, `indexedAt` INTEGER NOT NULL, "
+                    + "PRIMARY KEY(`historyId`), FOREIGN KEY(`historyId`) REFERENCES `history`(`id`) "
+                    + "ON UPDATE NO ACTION ON DELETE CASCADE )");
+            createPageFts(db);
+        }
+    };
+
+    /**
+     * Adds the history change journal. It starts empty; changes made before it existed
+     * reach a backup only through a full export.
+     */
+    public static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `history_journal` (`seq` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`op` INTEGER NOT NULL, `urlHash` INTEGER NOT NULL, `url` TEXT, `title` TEXT, "
+                    + "`iconHash` TEXT, `timestamp` INTEGER NOT NULL)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_history_journal_urlHash` ON `history_journal` (`urlHash`)");
+        }
+    };
+
+    /**
+     * All migrations, in order.
+     */
+    public static final Migration[] ALL = {
+            MIGRATION_1_2,
+            MIGRATION_2_3,
+            MIGRATION_3_4,
+            MIGRATION_4_5,
+            MIGRATION_5_6,
+            MIGRATION_6_7,
+            MIGRATION_7_8,
+            MIGRATION_8_9,
+            MIGRATION_9_10,
+            MIGRATION_10_11,
+            MIGRATION_11_12
+    };
+
+    /**
+     * Creates the full-text index over page text. It uses page_content as external
+     * content but is not an entity: the stored text is deflated, so the index cannot be
+     * kept in sync by triggers and is maintained by PageIndexManager instead.
+     */
+    public static void createPageFts(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `page_fts` USING FTS4("
+                + "`text`, tokenize=unicode61, content=`page_content`)");
+    }
+
+    /**
+     * Creates the triggers Room uses to keep history_fts in sync with the history table.
+     * They are dropped along with the table whenever the history table is rebuilt.
+     */
+    static void createHistoryFtsTriggers(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_history_fts_BEFORE_UPDATE "
+                + "BEFORE UPDATE ON `history` BEGIN DELETE FROM `history_fts` WHERE `docid`=OLD.`rowid`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_history_fts_BEFORE_DELETE "
+                + "BEFORE DELETE ON `history` BEGIN DELETE FROM `history_fts` WHERE `docid`=OLD.`rowid`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_history_fts_AFTER_UPDATE "
+                + "AFTER UPDATE ON `history` BEGIN INSERT INTO `history_fts`(`docid`, `url`, `title`) "
+                + "VALUES (NEW.`rowid`, NEW.`url`, NEW.`title`); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_history_fts_AFTER_INSERT "
+                + "AFTER INSERT ON `history` BEGIN INSERT INTO `history_fts`(`docid`, `url`, `title`) "
+                + "VALUES (NEW.`rowid`, NEW.`url`, NEW.`title`); END");
+    }
+}
@@ -0,0 +1,72 @@
+package com.noctusoft.webviewbrowser.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.RawQuery;
+import androidx.sqlite.db.SupportSQLiteQuery;
+
+import com.noctusoft.webviewbrowser.model.HistoryEntry;
+import com.noctusoft.webviewbrowser.model.PageContent;
+
+import java.util.List;
+
+/**
+ * Data Access Object for the stored text of visited pages.
+ * The full-text index over the text is not known to Room, see
+ * {@link Migrations#createPageFts}, so searches go through {@link #getEntries}.
+ */
+@Dao
+public interface PageContentDao {
+
+    /**
+     * Insert the content of a page, replacing earlier content of the same entry
+     *
+     * @param content The content to insert
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insert(PageContent content);
+
+    /**
+     * Get the stored content of a history entry
+     *
+     * @param historyId The id of the history entry
+     * @return The content, or null if the page is not indexed
+     */
+    @Query("SELECT * FROM page_content WHERE historyId = :historyId")
+    PageContent getContent(long historyId);
+
+    /**
+     * Get a batch of stored contents, for rebuilding the index
+     *
+     * @param afterHistoryId Contents of entries with a greater id are returned
+     * @param limit The maximum number of contents
+     * @return List of contents, ordered by entry id
+     */
+    @Query("SELECT * FROM page_content WHERE historyId > :afterHistoryId ORDER BY historyId LIMIT :limit")
+    List<PageContent> getContentsAfter(long afterHistoryId, int limit);
+
+    /**
+     * Get the number of indexed pages
+     *
+     * @return The number of pages
+     */
+    @Query("SELECT COUNT(*) FROM page_content")
+    int count();
+
+    /**
+     * Delete all stored page content
+     */
+    @Query("DELETE FROM page_content")
+    void deleteAll();
+
+    /**
+     * Get history entries with a query that joins the page text index
+     *
+     * @param query A query selecting history columns
+     * @return List of history entries
+     */
+    @RawQuery
+    List<HistoryEntry> getEntries(SupportSQLiteQuery query);
+}
@@ -0,0 +1,129 @@
+package com.noctusoft.webviewbrowser.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.noctusoft.webviewbrowser.model.DailyStats;
+import com.noctusoft.webviewbrowser.model.DomainStats;
+import com.noctusoft.webviewbrowser.model.HourlyStats;
+
+import java.util.List;
+
+/**
+ * Data Access Object for the history statistics.
+ * Rows are changed by adding to their counts, after inserting an empty row if there
+ * is none yet, so a batch of visits updates each row in place.
+ */
+@Dao
+public interface StatsDao {
+
+    /**
+     * Insert the statistics of a day unless the day already has a row
+     *
+     * @param stats The statistics to insert
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertIfAbsent(DailyStats stats);
+
+    /**
+     * Insert the statistics of an hour unless the hour already has a row
+     *
+     * @param stats The statistics to insert
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertIfAbsent(HourlyStats stats);
+
+    /**
+     * Insert the statistics of a site unless the site already has a row
+     *
+     * @param stats The statistics to insert
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertIfAbsent(DomainStats stats);
+
+    /**
+     * Add to the statistics of a day
+     *
+     * @param day The day, see {@link DailyStats#dayOf}
+     * @param visits The number of visits to add, negative for removed visits
+     * @param dwellTime The dwell time to add in milliseconds
+     * @param dwellCount The number of visits the dwell time was estimated for
+     */
+    @Query("UPDATE stats_daily SET visitCount = visitCount + :visits, dwellTime = dwellTime + :dwellTime, " +
+            "dwellCount = dwellCount + :dwellCount WHERE day = :day")
+    void addToDay(long day, int visits, long dwellTime, int dwellCount);
+
+    /**
+     * Add to the statistics of an hour
+     *
+     * @param hour The hour of the day
+     * @param visits The number of visits to add, negative for removed visits
+     */
+    @Query("UPDATE stats_hourly SET visitCount = visitCount + :visits WHERE hour = :hour")
+    void addToHour(int hour, int visits);
+
+    /**
+     * Add to the statistics of a site
+     *
+     * @param domain The registrable domain of the site
+     * @param visits The number of visits to add, negative for removed visits
+     * @param dwellTime The dwell time to add in milliseconds
+     * @param dwellCount The number of visits the dwell time was estimated for
+     * @param lastVisit The time of the latest added visit, kept if it is the latest
+     */
+    @Query("UPDATE stats_domains SET visitCount = visitCount + :visits, dwellTime = dwellTime + :dwellTime, " +
+            "dwellCount = dwellCount + :dwellCount, lastVisit = MAX(lastVisit, :lastVisit) WHERE domain = :domain")
+    void addToDomain(String domain, int visits, long dwellTime, int dwellCount, long lastVisit);
+
+    /**
+     * Delete the sites that have no visits left
+     */
+    @Query("DELETE FROM stats_domains WHERE visitCount <= 0")
+    void deleteEmptyDomains();
+
+    /**
+     * Get the statistics of the days from a given day on
+     *
+     * @param fromDay The first day, see {@link DailyStats#dayOf}
+     * @return List of days with visits, oldest first
+     */
+    @Query("SELECT * FROM stats_daily WHERE day >= :fromDay ORDER BY day")
+    List<DailyStats> getDays(long fromDay);
+
+    /**
+     * Get the statistics of the hours of the day
+     *
+     * @return List of hours with visits, in order
+     */
+    @Query("SELECT * FROM stats_hourly ORDER BY hour")
+    List<HourlyStats> getHours();
+
+    /**
+     * Get the most visited sites
+     *
+     * @param limit Maximum number of sites to return
+     * @return List of sites, most visits first
+     */
+    @Query("SELECT * FROM stats_domains ORDER BY visitCount DESC LIMIT :limit")
+    List<DomainStats> getTopDomains(int limit);
+
+    /**
+     * Delete the statistics of all days
+     */
+    @Query("DELETE FROM stats_daily")
+    void deleteAllDays();
+
+    /**
+     * Delete the statistics of all hours
+     */
+    @Query("DELETE FROM stats_hourly")
+    void deleteAllHours();
+
+    /**
+     * Delete the statistics of all sites
+     */
+    @Query("DELETE FROM stats_domains")
+    void deleteAllDomains();
+}
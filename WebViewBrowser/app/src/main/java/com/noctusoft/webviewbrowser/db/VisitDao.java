@@ -0,0 +1,46 @@
+package com.noctusoft.webviewbrowser.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.noctusoft.webviewbrowser.model.Visit;
+
+import java.util.List;
+
+/**
+ * Data Access Object for visits to history entries.
+ */
+@Dao
+public interface VisitDao {
+
+    /**
+     * Insert a visit, unless the same visit is already recorded
+     * 
+     * @param visit The visit to insert
+     * @return The row id of the visit, or -1 if it was already recorded
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insert(Visit visit);
+
+    /**
+     * Get the visits of a range of history entries
+     * 
+     * @param afterHistoryId Visits of entries with a greater id are returned
+     * @param lastHistoryId Visits of entries up to and including this id are returned
+     * @return List of visits, ordered by entry and then by time
+     */
+    @Query("SELECT * FROM visits WHERE historyId > :afterHistoryId AND historyId <= :lastHistoryId " +
+            "ORDER BY historyId, timestamp")
+    List<Visit> getVisitsInRange(long afterHistoryId, long lastHistoryId);
+
+    /**
+     * Get the visit times of a history entry
+     * 
+     * @param historyId The id of the history entry
+     * @return Visit times in milliseconds since the epoch, most recent first
+     */
+    @Query("SELECT timestamp FROM visits WHERE historyId = :historyId ORDER BY timestamp DESC")
+    List<Long> getVisitTimes(long historyId);
+}
@@ -0,0 +1,89 @@
+package com.noctusoft.webviewbrowser.model;
+
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+import java.util.TimeZone;
+
+/**
+ * Entity class holding the visits of one day, kept up to date as visits are written
+ * so that statistics are read without scanning the history.
+ * Days are numbered from the epoch in the time zone the visits were recorded in.
+ */
+@Entity(tableName = "stats_daily")
+public class DailyStats {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000;
+
+    @PrimaryKey
+    private long day;
+
+    private int visitCount;
+
+    // Estimated time spent on the pages visited this day, see dwellCount
+    private long dwellTime;
+
+    // The number of visits the dwell time was estimated for
+    private int dwellCount;
+
+    /**
+     * Creates the statistics of a day with no visits.
+     *
+     * @param day The day, see {@link #dayOf}.
+     */
+    public DailyStats(long day) {
+        this.day = day;
+    }
+
+    /**
+     * Gets the day a time falls on in the current time zone.
+     *
+     * @param timestamp The time in milliseconds since the epoch.
+     * @return The number of days since the epoch.
+     */
+    public static long dayOf(long timestamp) {
+        long local = timestamp + TimeZone.getDefault().getOffset(timestamp);
+        // Rounded down, also before the epoch
+        return local >= 0 ? local / DAY_MS : (local + 1) / DAY_MS - 1;
+    }
+
+    public long getDay() {
+        return day;
+    }
+
+    public void setDay(long day) {
+        this.day = day;
+    }
+
+    /**
+     * @return The start of the day in milliseconds since the epoch, as a UTC time,
+     *         for formatting with a UTC calendar.
+     */
+    public long getDayStartUtc() {
+        return day * DAY_MS;
+    }
+
+    public int getVisitCount() {
+        return visitCount;
+    }
+
+    public void setVisitCount(int visitCount) {
+        this.visitCount = visitCount;
+    }
+
+    public long getDwellTime() {
+        return dwellTime;
+    }
+
+    public void setDwellTime(long dwellTime) {
+        this.dwellTime = dwellTime;
+    }
+
+    public int getDwellCount() {
+        return dwellCount;
+    }
+
+    public void setDwellCount(int dwellCount) {
+        this.dwellCount = dwellCount;
+    }
+}
@@ -0,0 +1,88 @@
+package com.noctusoft.webviewbrowser.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import com.noctusoft.webviewbrowser.utils.UrlCanonicalizer;
+
+/**
+ * Entity class holding the visits to one site, kept up to date as visits are written.
+ * Sites are registrable domains, see {@link UrlCanonicalizer#getRegistrableDomain},
+ * so "mail.example.com" and "www.example.com" count as "example.com".
+ * The index on the visit count makes the most visited sites a short index read.
+ */
+@Entity(tableName = "stats_domains", indices = {@Index(value = {"visitCount"})})
+public class DomainStats {
+
+    @PrimaryKey
+    @NonNull
+    private String domain;
+
+    private int visitCount;
+
+    private long dwellTime;
+
+    private int dwellCount;
+
+    private long lastVisit;
+
+    /**
+     * Creates the statistics of a site with no visits.
+     *
+     * @param domain The registrable domain of the site.
+     */
+    public DomainStats(@NonNull String domain) {
+        this.domain = domain;
+    }
+
+    @NonNull
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(@NonNull String domain) {
+        this.domain = domain;
+    }
+
+    public int getVisitCount() {
+        return visitCount;
+    }
+
+    public void setVisitCount(int visitCount) {
+        this.visitCount = visitCount;
+    }
+
+    public long getDwellTime() {
+        return dwellTime;
+    }
+
+    public void setDwellTime(long dwellTime) {
+        this.dwellTime = dwellTime;
+    }
+
+    public int getDwellCount() {
+        return dwellCount;
+    }
+
+    public void setDwellCount(int dwellCount) {
+        this.dwellCount = dwellCount;
+    }
+
+    public long getLastVisit() {
+        return lastVisit;
+    }
+
+    public void setLastVisit(long lastVisit) {
+        this.lastVisit = lastVisit;
+    }
+
+    /**
+     * @return The average estimated time spent on a page of the site in milliseconds,
+     *         or 0 if it is not known.
+     */
+    public long getAverageDwellTime() {
+        return dwellCount == 0 ? 0 : dwellTime / dwellCount;
+    }
+}
@@ -0,0 +1,73 @@
+package com.noctusoft.webviewbrowser.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Entity class for a favicon stored once per distinct image.
+ * History entries and favorites refer to it by its content hash.
+ */
+@Entity(tableName = "favicons")
+public class Favicon {
+
+    @PrimaryKey
+    @NonNull
+    private String hash;
+
+    @NonNull
+    private byte[] data;
+
+    private int width;
+
+    private int height;
+
+    /**
+     * Creates a new favicon.
+     *
+     * @param hash The hex SHA-1 hash of the encoded image.
+     * @param data The encoded PNG image.
+     * @param width The image width in pixels.
+     * @param height The image height in pixels.
+     */
+    public Favicon(@NonNull String hash, @NonNull byte[] data, int width, int height) {
+        this.hash = hash;
+        this.data = data;
+        this.width = width;
+        this.height = height;
+    }
+
+    @NonNull
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(@NonNull String hash) {
+        this.hash = hash;
+    }
+
+    @NonNull
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(@NonNull byte[] data) {
+        this.data = data;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+}
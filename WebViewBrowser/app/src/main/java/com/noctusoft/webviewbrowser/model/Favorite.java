@@ -7,6 +7,7 @@ public class Favorite {
     private String title;
     private String url;
     private long timestamp;
+    private String iconHash;
 
     public Favorite(String title, String url) {
         this.title = title;
@@ -38,6 +39,14 @@ public class Favorite {
         this.timestamp = timestamp;
     }
 
+    public String getIconHash() {
+        return iconHash;
+    }
+
+    public void setIconHash(String iconHash) {
+        this.iconHash = iconHash;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,72 @@
+package com.noctusoft.webviewbrowser.model;
+
+/**
+ * Describes a single change to the browser history, as delivered to
+ * {@link com.noctusoft.webviewbrowser.HistoryManager.HistoryObserver}s.
+ */
+public final class HistoryChange {
+
+    /**
+     * The kind of change.
+     */
+    public enum Type {
+        /** A page was visited; the entry moves to the top of the history. */
+        VISITED,
+        /** An entry changed without a new visit, for example its favicon. */
+        UPDATED,
+        /** The entry for a URL was deleted. */
+        REMOVED,
+        /** The whole history was cleared. */
+        CLEARED,
+        /** The history changed in a way not described by single entries, so views should reload. */
+        RELOADED
+    }
+
+    private final Type type;
+    private final HistoryEntry entry;
+    private final String url;
+
+    private HistoryChange(Type type, HistoryEntry entry, String url) {
+        this.type = type;
+        this.entry = entry;
+        this.url = url;
+    }
+
+    public static HistoryChange visited(HistoryEntry entry) {
+        return new HistoryChange(Type.VISITED, entry, entry.getUrl());
+    }
+
+    public static HistoryChange updated(HistoryEntry entry) {
+        return new HistoryChange(Type.UPDATED, entry, entry.getUrl());
+    }
+
+    public static HistoryChange removed(String url) {
+        return new HistoryChange(Type.REMOVED, null, url);
+    }
+
+    public static HistoryChange cleared() {
+        return new HistoryChange(Type.CLEARED, null, null);
+    }
+
+    public static HistoryChange reloaded() {
+        return new HistoryChange(Type.RELOADED, null, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The new state of the entry for VISITED and UPDATED, otherwise null.
+     */
+    public HistoryEntry getEntry() {
+        return entry;
+    }
+
+    /**
+     * @return The URL of the entry for VISITED, UPDATED and REMOVED, otherwise null.
+     */
+    public String getUrl() {
+        return url;
+    }
+}
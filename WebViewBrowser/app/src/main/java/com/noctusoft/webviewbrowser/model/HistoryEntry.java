@@ -1,34 +1,59 @@
 package com.noctusoft.webviewbrowser.model;
 
 import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.Ignore;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
-import androidx.room.TypeConverters;
+
+import com.noctusoft.webviewbrowser.utils.FrecencyUtils;
+import com.noctusoft.webviewbrowser.utils.UrlCanonicalizer;
 
 import java.util.Date;
 import java.util.Objects;
-import java.util.UUID;
 
 /**
  * Entity class representing a browser history entry for storage in Room database.
+ * There is one row per canonical URL, found through the unique index on {@link #urlHash}.
+ * Visit times are stored as epoch milliseconds. The individual visits are kept in
+ * {@link Visit}; the entry holds their count and frecency, see {@link FrecencyUtils}.
+ * The host is also stored reversed, see {@link UrlCanonicalizer#reverseHost}, so that the
+ * entries of a site and its subdomains are one range of the {@link #revHost} index.
  */
-@Entity(tableName = "history")
+@Entity(tableName = "history", indices = {
+        @Index(value = {"urlHash"}, unique = true),
+        @Index(value = {"timestamp"}),
+        @Index(value = {"frecency"}),
+        @Index(value = {"revHost", "timestamp"})
+})
 public class HistoryEntry {
     
-    @PrimaryKey
-    @NonNull
-    private String id;
+    // FNV-1a 64-bit parameters
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    
+    @PrimaryKey(autoGenerate = true)
+    private long id;
     
     @NonNull
     private String url;
     
+    private long urlHash;
+    
+    private String revHost;
+    
     private String title;
     
-    @TypeConverters(DateConverter.class)
-    private Date timestamp;
+    private long timestamp;
+    
+    private String iconHash;
+    
+    @ColumnInfo(defaultValue = "1")
+    private int visitCount;
     
-    private byte[] iconData;
+    @ColumnInfo(defaultValue = "0")
+    private long frecency;
     
     /**
      * Creates a new history entry.
@@ -38,31 +63,80 @@ public class HistoryEntry {
      */
     @Ignore
     public HistoryEntry(@NonNull String url, String title) {
-        this(url, title, new Date(), null);
+        this(url, title, System.currentTimeMillis(), null);
     }
     
     /**
-     * Creates a new history entry with specific timestamp and icon data.
+     * Creates a new history entry with specific timestamp and favicon.
+     * The entry counts as a single visit at the given time. The id is assigned by the
+     * database when the entry is first written.
      *
      * @param url The URL of the page.
      * @param title The title of the page.
-     * @param timestamp The timestamp of the visit.
-     * @param iconData The favicon data as bytes.
+     * @param timestamp The time of the visit in milliseconds since the epoch.
+     * @param iconHash The content hash of the favicon in the favicon store, or null.
      */
-    public HistoryEntry(@NonNull String url, String title, Date timestamp, byte[] iconData) {
-        this.id = UUID.randomUUID().toString();
+    public HistoryEntry(@NonNull String url, String title, long timestamp, String iconHash) {
         this.url = url;
+        this.urlHash = hashUrl(url);
+        this.revHost = UrlCanonicalizer.getReversedHost(url);
         this.title = title;
         this.timestamp = timestamp;
-        this.iconData = iconData;
+        this.iconHash = iconHash;
+        this.visitCount = 1;
+        this.frecency = FrecencyUtils.addVisit(0, timestamp, FrecencyUtils.VISIT_WEIGHT);
     }
     
-    @NonNull
-    public String getId() {
+    /**
+     * Creates a copy of a history entry.
+     *
+     * @param other The entry to copy.
+     */
+    @Ignore
+    public HistoryEntry(@NonNull HistoryEntry other) {
+        this.id = other.id;
+        this.url = other.url;
+        this.urlHash = other.urlHash;
+        this.revHost = other.revHost;
+        this.title = other.title;
+        this.timestamp = other.timestamp;
+        this.iconHash = other.iconHash;
+        this.visitCount = other.visitCount;
+        this.frecency = other.frecency;
+    }
+
+    /**
+     * Creates a history entry from stored values, without parsing or hashing the URL again.
+     *
+     * @param id The row id.
+     * @param url The URL of the page.
+     * @param urlHash The hash of the URL, see {@link #hashUrl}.
+     * @param revHost The reversed host of the URL, see {@link #getRevHost()}.
+     * @param title The title of the page.
+     * @param timestamp The time of the last visit in milliseconds since the epoch.
+     * @param iconHash The content hash of the favicon, or null.
+     * @param visitCount The number of visits.
+     * @param frecency The frecency, see {@link FrecencyUtils}.
+     */
+    @Ignore
+    public HistoryEntry(long id, @NonNull String url, long urlHash, String revHost, String title,
+                        long timestamp, String iconHash, int visitCount, long frecency) {
+        this.id = id;
+        this.url = url;
+        this.urlHash = urlHash;
+        this.revHost = revHost;
+        this.title = title;
+        this.timestamp = timestamp;
+        this.iconHash = iconHash;
+        this.visitCount = visitCount;
+        this.frecency = frecency;
+    }
+    
+    public long getId() {
         return id;
     }
     
-    public void setId(@NonNull String id) {
+    public void setId(long id) {
         this.id = id;
     }
     
@@ -75,6 +149,26 @@ public class HistoryEntry {
         this.url = url;
     }
     
+    public long getUrlHash() {
+        return urlHash;
+    }
+    
+    public void setUrlHash(long urlHash) {
+        this.urlHash = urlHash;
+    }
+    
+    /**
+     * @return The host of the URL in reverse label order, such as "com.example.www.",
+     *         or null if the URL has no host.
+     */
+    public String getRevHost() {
+        return revHost;
+    }
+    
+    public void setRevHost(String revHost) {
+        this.revHost = revHost;
+    }
+    
     public String getTitle() {
         return title;
     }
@@ -83,20 +177,47 @@ public class HistoryEntry {
         this.title = title;
     }
     
-    public Date getTimestamp() {
+    public long getTimestamp() {
         return timestamp;
     }
     
-    public void setTimestamp(Date timestamp) {
+    public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
     }
     
-    public byte[] getIconData() {
-        return iconData;
+    public String getIconHash() {
+        return iconHash;
+    }
+    
+    public void setIconHash(String iconHash) {
+        this.iconHash = iconHash;
     }
     
-    public void setIconData(byte[] iconData) {
-        this.iconData = iconData;
+    public int getVisitCount() {
+        return visitCount;
+    }
+    
+    public void setVisitCount(int visitCount) {
+        this.visitCount = visitCount;
+    }
+    
+    public long getFrecency() {
+        return frecency;
+    }
+    
+    public void setFrecency(long frecency) {
+        this.frecency = frecency;
+    }
+    
+    /**
+     * Makes this entry, for a new visit, carry on the visit count and frecency of the
+     * entry it replaces.
+     *
+     * @param previous The entry for the same URL before this visit.
+     */
+    public void addPreviousVisits(HistoryEntry previous) {
+        visitCount = previous.visitCount + 1;
+        frecency = FrecencyUtils.addVisit(previous.frecency, timestamp, FrecencyUtils.VISIT_WEIGHT);
     }
     
     /**
@@ -105,7 +226,25 @@ public class HistoryEntry {
      * @return A BrowsingSession object.
      */
     public BrowsingSession toBrowsingSession() {
-        return new BrowsingSession(url, title, timestamp);
+        return new BrowsingSession(url, title, new Date(timestamp));
+    }
+    
+    /**
+     * Computes the key under which a URL is stored in the history.
+     * The URL is canonicalized before hashing, see {@link UrlCanonicalizer}, so trivially
+     * different spellings of a URL share one entry.
+     *
+     * @param url The URL.
+     * @return The 64-bit FNV-1a hash of the canonical URL.
+     */
+    public static long hashUrl(String url) {
+        String canonical = UrlCanonicalizer.canonicalize(url);
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < canonical.length(); i++) {
+            hash ^= canonical.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
     }
     
     @Override
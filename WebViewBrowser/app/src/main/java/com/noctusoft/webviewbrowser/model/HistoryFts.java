@@ -0,0 +1,43 @@
+package com.noctusoft.webviewbrowser.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+
+/**
+ * Full-text index over the title and URL of history entries.
+ * The index uses the history table as external content, so Room keeps it in sync
+ * with triggers and the text itself is not stored twice.
+ */
+@Fts4(contentEntity = HistoryEntry.class, tokenizer = FtsOptions.TOKENIZER_UNICODE61, prefix = {2, 3})
+@Entity(tableName = "history_fts")
+public class HistoryFts {
+
+    @NonNull
+    private String url;
+
+    private String title;
+
+    public HistoryFts(@NonNull String url, String title) {
+        this.url = url;
+        this.title = title;
+    }
+
+    @NonNull
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(@NonNull String url) {
+        this.url = url;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+}
@@ -0,0 +1,60 @@
+package com.noctusoft.webviewbrowser.model;
+
+import androidx.room.Embedded;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * A history entry matched by a full-text search, together with the raw
+ * {@code matchinfo()} statistics used to rank it.
+ */
+public class HistorySearchResult {
+
+    @Embedded
+    public HistoryEntry entry;
+
+    /**
+     * Output of {@code matchinfo(history_fts, 'pcx')}: phrase count, column count and
+     * three hit counters per phrase/column pair, as native-endian 32-bit integers.
+     */
+    public byte[] matchInfo;
+
+    // Column weights in history_fts column order (url, title)
+    private static final double[] COLUMN_WEIGHTS = {1.0, 2.0};
+
+    /**
+     * Computes a relevance score from the match statistics.
+     * Hits in the title count more than hits in the URL, and phrases that are rare
+     * across the whole history count more than common ones.
+     *
+     * @return The relevance score, higher is better.
+     */
+    public double getScore() {
+        if (matchInfo == null || matchInfo.length < 8) {
+            return 0;
+        }
+        IntBuffer info = ByteBuffer.wrap(matchInfo)
+                .order(ByteOrder.nativeOrder())
+                .asIntBuffer();
+        int phraseCount = info.get(0);
+        int columnCount = info.get(1);
+        double score = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount; column++) {
+                int base = 2 + 3 * (phrase * columnCount + column);
+                if (base + 2 >= info.limit()) {
+                    return score;
+                }
+                int hitsInRow = info.get(base);
+                int rowsWithHits = info.get(base + 2);
+                if (hitsInRow > 0) {
+                    double weight = column < COLUMN_WEIGHTS.length ? COLUMN_WEIGHTS[column] : 1.0;
+                    score += weight * hitsInRow / (1.0 + rowsWithHits);
+                }
+            }
+        }
+        return score;
+    }
+}
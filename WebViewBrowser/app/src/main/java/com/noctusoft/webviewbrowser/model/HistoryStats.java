@@ -0,0 +1,78 @@
+package com.noctusoft.webviewbrowser.model;
+
+import java.util.List;
+
+/**
+ * Statistics about the history, as shown in the statistics view.
+ * Read from the aggregate tables, see {@link DailyStats}, {@link HourlyStats} and
+ * {@link DomainStats}.
+ */
+public class HistoryStats {
+
+    private final List<DailyStats> days;
+    private final List<HourlyStats> hours;
+    private final List<DomainStats> topDomains;
+
+    /**
+     * @param days The days with visits in the period, oldest first.
+     * @param hours The hours of the day with visits.
+     * @param topDomains The most visited sites, most visits first.
+     */
+    public HistoryStats(List<DailyStats> days, List<HourlyStats> hours, List<DomainStats> topDomains) {
+        this.days = days;
+        this.hours = hours;
+        this.topDomains = topDomains;
+    }
+
+    public List<DailyStats> getDays() {
+        return days;
+    }
+
+    public List<HourlyStats> getHours() {
+        return hours;
+    }
+
+    public List<DomainStats> getTopDomains() {
+        return topDomains;
+    }
+
+    /**
+     * @return The number of visits in the period.
+     */
+    public int getVisitCount() {
+        int count = 0;
+        for (DailyStats day : days) {
+            count += day.getVisitCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return The average estimated time spent on a page in the period in milliseconds,
+     *         or 0 if it is not known.
+     */
+    public long getAverageDwellTime() {
+        long dwellTime = 0;
+        int dwellCount = 0;
+        for (DailyStats day : days) {
+            dwellTime += day.getDwellTime();
+            dwellCount += day.getDwellCount();
+        }
+        return dwellCount == 0 ? 0 : dwellTime / dwellCount;
+    }
+
+    /**
+     * @return The hour of the day with the most visits, or -1 if there are none.
+     */
+    public int getBusiestHour() {
+        int busiest = -1;
+        int most = 0;
+        for (HourlyStats hour : hours) {
+            if (hour.getVisitCount() > most) {
+                most = hour.getVisitCount();
+                busiest = hour.getHour();
+            }
+        }
+        return busiest;
+    }
+}
@@ -0,0 +1,28 @@
+package com.noctusoft.webviewbrowser.model;
+
+import com.noctusoft.webviewbrowser.utils.UrlCanonicalizer;
+
+/**
+ * The history of one host, summed over its entries, as listed in the per-site view.
+ */
+public class HostSummary {
+
+    /** The host in reverse label order, see {@link UrlCanonicalizer#reverseHost}. */
+    public String revHost;
+
+    /** The number of history entries, one per URL. */
+    public int entryCount;
+
+    /** The number of visits over all entries. */
+    public int visitCount;
+
+    /** The time of the most recent visit in milliseconds since the epoch. */
+    public long lastVisit;
+
+    /**
+     * @return The host, such as "www.example.com".
+     */
+    public String getHost() {
+        return UrlCanonicalizer.unreverseHost(revHost);
+    }
+}
@@ -0,0 +1,56 @@
+package com.noctusoft.webviewbrowser.model;
+
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+import java.util.Calendar;
+
+/**
+ * Entity class holding the visits made during one hour of the day, over all days.
+ * There are at most 24 rows, kept up to date as visits are written.
+ */
+@Entity(tableName = "stats_hourly")
+public class HourlyStats {
+
+    @PrimaryKey
+    private int hour;
+
+    private int visitCount;
+
+    /**
+     * Creates the statistics of an hour with no visits.
+     *
+     * @param hour The hour of the day, from 0 to 23.
+     */
+    public HourlyStats(int hour) {
+        this.hour = hour;
+    }
+
+    /**
+     * Gets the hour of the day a time falls in, in the current time zone.
+     *
+     * @param timestamp The time in milliseconds since the epoch.
+     * @return The hour, from 0 to 23.
+     */
+    public static int hourOf(long timestamp) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timestamp);
+        return calendar.get(Calendar.HOUR_OF_DAY);
+    }
+
+    public int getHour() {
+        return hour;
+    }
+
+    public void setHour(int hour) {
+        this.hour = hour;
+    }
+
+    public int getVisitCount() {
+        return visitCount;
+    }
+
+    public void setVisitCount(int visitCount) {
+        this.visitCount = visitCount;
+    }
+}
@@ -0,0 +1,130 @@
+package com.noctusoft.webviewbrowser.model;
+
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * Entity class representing one change to the history in the change journal.
+ * Records are numbered by an AUTOINCREMENT key, so sequence numbers only grow and are
+ * never reused, even after the journal is cleared or trimmed. Applying the records
+ * after a sequence number, in order, to a copy of the history as it was at that
+ * number brings the copy up to date.
+ *
+ * <p>Records that a later record makes pointless are removed: a deleted URL keeps only
+ * its delete record, and a clear keeps only itself.</p>
+ */
+@Entity(tableName = "history_journal", indices = {@Index(value = {"urlHash"})})
+public class JournalRecord {
+
+    /** A visit to {@link #url} at {@link #timestamp}, with the title and favicon at the time. */
+    public static final int OP_VISIT = 1;
+    /** A new title or favicon for {@link #url}; null fields are unchanged. */
+    public static final int OP_UPDATE = 2;
+    /** The entry for {@link #url} and its visits were deleted. */
+    public static final int OP_DELETE = 3;
+    /** All entries of the host in {@link #url} and its subdomains were deleted. */
+    public static final int OP_DELETE_SITE = 4;
+    /** The whole history was cleared. */
+    public static final int OP_CLEAR = 5;
+
+    @PrimaryKey(autoGenerate = true)
+    private long seq;
+
+    private int op;
+
+    private long urlHash;
+
+    private String url;
+
+    private String title;
+
+    private String iconHash;
+
+    private long timestamp;
+
+    /**
+     * Creates a journal record. The sequence number is assigned when it is written.
+     *
+     * @param op The kind of change, one of the OP_ constants.
+     * @param url The URL, or site for {@link #OP_DELETE_SITE}, or null for {@link #OP_CLEAR}.
+     * @param title The title, or null.
+     * @param iconHash The content hash of the favicon, or null.
+     * @param timestamp The time of the visit, or of the change for other kinds.
+     */
+    public JournalRecord(int op, String url, String title, String iconHash, long timestamp) {
+        this.op = op;
+        this.url = url;
+        this.urlHash = op == OP_VISIT || op == OP_UPDATE || op == OP_DELETE ? HistoryEntry.hashUrl(url) : 0;
+        this.title = title;
+        this.iconHash = iconHash;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Creates the record of a written visit.
+     *
+     * @param visit The visit.
+     * @return The record.
+     */
+    public static JournalRecord visit(HistoryEntry visit) {
+        return new JournalRecord(OP_VISIT, visit.getUrl(), visit.getTitle(), visit.getIconHash(),
+                visit.getTimestamp());
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public int getOp() {
+        return op;
+    }
+
+    public void setOp(int op) {
+        this.op = op;
+    }
+
+    public long getUrlHash() {
+        return urlHash;
+    }
+
+    public void setUrlHash(long urlHash) {
+        this.urlHash = urlHash;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getIconHash() {
+        return iconHash;
+    }
+
+    public void setIconHash(String iconHash) {
+        this.iconHash = iconHash;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+}
@@ -0,0 +1,78 @@
+package com.noctusoft.webviewbrowser.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.PrimaryKey;
+
+/**
+ * Entity class holding the visible text of a visited page, for searching history by
+ * what a page said. The text is stored deflated and removed together with its history
+ * entry. The full-text index over it is kept by {@code PageIndexManager}.
+ */
+@Entity(tableName = "page_content",
+        foreignKeys = @ForeignKey(entity = HistoryEntry.class,
+                parentColumns = "id",
+                childColumns = "historyId",
+                onDelete = ForeignKey.CASCADE))
+public class PageContent {
+
+    @PrimaryKey
+    private long historyId;
+
+    // CRC-32 of the uncompressed text, to skip indexing a page that did not change
+    private long checksum;
+
+    @NonNull
+    private byte[] text;
+
+    private long indexedAt;
+
+    /**
+     * Creates the content of a page.
+     *
+     * @param historyId The id of the history entry of the page.
+     * @param checksum The CRC-32 of the UTF-8 text.
+     * @param text The deflated UTF-8 text.
+     * @param indexedAt The time the text was extracted in milliseconds since the epoch.
+     */
+    public PageContent(long historyId, long checksum, @NonNull byte[] text, long indexedAt) {
+        this.historyId = historyId;
+        this.checksum = checksum;
+        this.text = text;
+        this.indexedAt = indexedAt;
+    }
+
+    public long getHistoryId() {
+        return historyId;
+    }
+
+    public void setHistoryId(long historyId) {
+        this.historyId = historyId;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(long checksum) {
+        this.checksum = checksum;
+    }
+
+    @NonNull
+    public byte[] getText() {
+        return text;
+    }
+
+    public void setText(@NonNull byte[] text) {
+        this.text = text;
+    }
+
+    public long getIndexedAt() {
+        return indexedAt;
+    }
+
+    public void setIndexedAt(long indexedAt) {
+        this.indexedAt = indexedAt;
+    }
+}
@@ -0,0 +1,62 @@
+package com.noctusoft.webviewbrowser.model;
+
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * Entity class representing a single visit to a history entry.
+ * Visits are removed together with their entry. An entry has at most one visit at
+ * a given time, so importing the same visits twice does not count them twice.
+ */
+@Entity(tableName = "visits",
+        foreignKeys = @ForeignKey(entity = HistoryEntry.class,
+                parentColumns = "id",
+                childColumns = "historyId",
+                onDelete = ForeignKey.CASCADE),
+        indices = {@Index(value = {"historyId", "timestamp"}, unique = true)})
+public class Visit {
+
+    @PrimaryKey(autoGenerate = true)
+    private long id;
+
+    private long historyId;
+
+    private long timestamp;
+
+    /**
+     * Creates a new visit.
+     *
+     * @param historyId The id of the visited history entry.
+     * @param timestamp The time of the visit in milliseconds since the epoch.
+     */
+    public Visit(long historyId, long timestamp) {
+        this.historyId = historyId;
+        this.timestamp = timestamp;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getHistoryId() {
+        return historyId;
+    }
+
+    public void setHistoryId(long historyId) {
+        this.historyId = historyId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+}
@@ -11,6 +11,7 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.noctusoft.webviewbrowser.FaviconManager;
 import com.noctusoft.webviewbrowser.R;
 import com.noctusoft.webviewbrowser.model.Favorite;
 
@@ -61,6 +62,19 @@ public class FavoritesAdapter extends RecyclerView.Adapter<FavoritesAdapter.View
         // Set title and URL
         holder.titleTextView.setText(favorite.getTitle());
         holder.urlTextView.setText(favorite.getUrl());
+
+        // Set favicon, keeping the default icon until the stored one is loaded
+        final String iconHash = favorite.getIconHash();
+        holder.faviconView.setTag(iconHash);
+        holder.faviconView.setImageResource(android.R.drawable.ic_menu_compass);
+        if (iconHash != null) {
+            FaviconManager.getInstance(context).loadIcon(iconHash, (hash, icon) -> {
+                // The view may have been rebound to another favorite in the meantime
+                if (icon != null && hash.equals(holder.faviconView.getTag())) {
+                    holder.faviconView.setImageBitmap(icon);
+                }
+            });
+        }
         
         // Set click listeners
         holder.itemView.setOnClickListener(v -> {
@@ -0,0 +1,28 @@
+package com.noctusoft.webviewbrowser.ui;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.noctusoft.webviewbrowser.model.HistoryEntry;
+
+import java.util.Objects;
+
+/**
+ * Compares history entries for list diffing. Rows are the same item when they are for
+ * the same URL, and only need rebinding when something shown in them changed.
+ */
+public class HistoryDiffCallback extends DiffUtil.ItemCallback<HistoryEntry> {
+
+    @Override
+    public boolean areItemsTheSame(@NonNull HistoryEntry oldItem, @NonNull HistoryEntry newItem) {
+        return oldItem.getUrlHash() == newItem.getUrlHash();
+    }
+
+    @Override
+    public boolean areContentsTheSame(@NonNull HistoryEntry oldItem, @NonNull HistoryEntry newItem) {
+        return oldItem.getTimestamp() == newItem.getTimestamp()
+                && oldItem.getUrl().equals(newItem.getUrl())
+                && Objects.equals(oldItem.getTitle(), newItem.getTitle())
+                && Objects.equals(oldItem.getIconHash(), newItem.getIconHash());
+    }
+}
@@ -1,19 +1,29 @@
 package com.noctusoft.webviewbrowser.ui;
 
+import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.TextWatcher;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.EditText;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
@@ -21,27 +31,68 @@ import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.noctusoft.webviewbrowser.BrowserActivity;
 import com.noctusoft.webviewbrowser.HistoryManager;
+import com.noctusoft.webviewbrowser.PageIndexManager;
 import com.noctusoft.webviewbrowser.R;
+import com.noctusoft.webviewbrowser.model.DailyStats;
+import com.noctusoft.webviewbrowser.model.DomainStats;
+import com.noctusoft.webviewbrowser.model.HistoryChange;
 import com.noctusoft.webviewbrowser.model.HistoryEntry;
+import com.noctusoft.webviewbrowser.model.HistoryStats;
+import com.noctusoft.webviewbrowser.utils.UrlCanonicalizer;
 
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
 
 /**
  * Activity for displaying browsing history.
+ * The list follows changes to the history as they happen; each new list is diffed
+ * against the shown one in the background so only changed rows are rebound.
  */
 public class HistoryListActivity extends AppCompatActivity {
 
+    private static final String TAG = "HistoryListActivity";
+    private static final int REQUEST_EXPORT_HISTORY = 2001;
+    private static final int REQUEST_IMPORT_HISTORY = 2002;
+    private static final int REQUEST_BACKUP_HISTORY = 2003;
+    // Where the last backup left off, so the next one only writes the changes since
+    private static final String BACKUP_PREFS = "history_backup";
+    private static final String KEY_BACKUP_SEQ = "last_seq";
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+    private static final int SEARCH_RESULT_LIMIT = 500;
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_DISTANCE = 20;
+    private static final int STATS_DAYS = 7;
+    private static final int STATS_TOP_SITES = 5;
+
     private RecyclerView recyclerView;
     private TextView emptyView;
     private SwipeRefreshLayout swipeRefreshLayout;
     private EditText searchEditText;
     private HistoryAdapter adapter;
     private HistoryManager historyManager;
-    private List<HistoryEntry> historyEntries = new ArrayList<>();
-    private List<HistoryEntry> filteredEntries = new ArrayList<>();
+    // The list most recently handed to the adapter; never modified, changes submit a new list
+    private List<HistoryEntry> filteredEntries = Collections.emptyList();
+    // The URL hashes of filteredEntries, so appending rows does not scan the list
+    private Set<Long> shownUrlHashes = Collections.emptySet();
+    private final HistoryManager.HistoryObserver historyObserver = this::onHistoryChanged;
+
+    // Paging state for the unfiltered list
+    private boolean isSearching = false;
+    private boolean isLoadingPage = false;
+    private boolean reachedEnd = false;
+    private int pageGeneration = 0;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable searchRunnable = this::runSearch;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -66,10 +117,22 @@ public class HistoryListActivity extends AppCompatActivity {
         searchEditText = findViewById(R.id.search_edit_text);
 
         // Set up RecyclerView
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
         adapter = new HistoryAdapter();
         recyclerView.setAdapter(adapter);
 
+        // Load the next page when scrolling gets close to the end of the loaded rows
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= filteredEntries.size() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+
         // Set up swipe to refresh
         swipeRefreshLayout.setOnRefreshListener(this::refreshHistoryList);
 
@@ -93,24 +156,83 @@ public class HistoryListActivity extends AppCompatActivity {
         FloatingActionButton clearButton = findViewById(R.id.fab_clear_history);
         clearButton.setOnClickListener(v -> showClearHistoryDialog());
 
-        // Load history entries
+        // Load history entries and follow changes to them
         refreshHistoryList();
+        historyManager.addObserver(historyObserver);
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
-        refreshHistoryList();
+    protected void onDestroy() {
+        historyManager.removeObserver(historyObserver);
+        searchHandler.removeCallbacks(searchRunnable);
+        super.onDestroy();
+    }
+
+    /**
+     * Applies changes to the history to the rows shown.
+     * While searching, shown rows are updated or removed but no rows are added.
+     */
+    private void onHistoryChanged(List<HistoryChange> changes) {
+        List<HistoryEntry> updated = new ArrayList<>(filteredEntries);
+        // Rows added by earlier changes, which shownUrlHashes does not have yet
+        Set<Long> added = new HashSet<>();
+        for (HistoryChange change : changes) {
+            switch (change.getType()) {
+                case VISITED:
+                    int index = indexOfUrl(updated, change.getEntry().getUrlHash(), added);
+                    if (index >= 0) {
+                        updated.remove(index);
+                        updated.add(isSearching ? index : 0, change.getEntry());
+                    } else if (!isSearching) {
+                        updated.add(0, change.getEntry());
+                        added.add(change.getEntry().getUrlHash());
+                    }
+                    break;
+                case UPDATED:
+                    index = indexOfUrl(updated, change.getEntry().getUrlHash(), added);
+                    if (index >= 0) {
+                        updated.set(index, change.getEntry());
+                    }
+                    break;
+                case REMOVED:
+                    index = indexOfUrl(updated, HistoryEntry.hashUrl(change.getUrl()), added);
+                    if (index >= 0) {
+                        updated.remove(index);
+                    }
+                    break;
+                case CLEARED:
+                    updated.clear();
+                    reachedEnd = true;
+                    break;
+                default:
+                    refreshHistoryList();
+                    return;
+            }
+        }
+        submitEntries(updated);
+    }
+
+    /**
+     * Finds the row of a URL in a copy of the shown rows. Only scans for URLs that are
+     * shown or were added to the copy.
+     */
+    private int indexOfUrl(List<HistoryEntry> entries, long urlHash, Set<Long> added) {
+        if (!shownUrlHashes.contains(urlHash) && !added.contains(urlHash)) {
+            return -1;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).getUrlHash() == urlHash) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
      * Refreshes the history list.
      */
     private void refreshHistoryList() {
-        // Get all history entries
-        historyEntries = historyManager.getEntries();
-
-        // Apply filter if search is active
+        // Apply filter if search is active, otherwise reload from the first page
         filterHistoryEntries(searchEditText.getText().toString());
 
         // Update UI
@@ -119,27 +241,150 @@ public class HistoryListActivity extends AppCompatActivity {
 
     /**
      * Filters history entries based on search text.
+     * Searches run in the background once typing pauses.
      */
     private void filterHistoryEntries(String searchText) {
-        filteredEntries.clear();
+        searchHandler.removeCallbacks(searchRunnable);
 
-        if (searchText.isEmpty()) {
-            filteredEntries.addAll(historyEntries);
+        if (searchText.trim().isEmpty()) {
+            isSearching = false;
+            resetPaging();
         } else {
-            String lowerCaseSearch = searchText.toLowerCase();
-            for (HistoryEntry entry : historyEntries) {
-                if (entry.getUrl().toLowerCase().contains(lowerCaseSearch) ||
-                        (entry.getTitle() != null && entry.getTitle().toLowerCase().contains(lowerCaseSearch))) {
-                    filteredEntries.add(entry);
+            isSearching = true;
+            searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
+        }
+    }
+
+    /**
+     * Drops the loaded pages and starts again from the most recent entries.
+     */
+    private void resetPaging() {
+        // Invalidate pages still being loaded for the previous list
+        pageGeneration++;
+        isLoadingPage = false;
+        reachedEnd = false;
+        submitEntries(Collections.<HistoryEntry>emptyList());
+        loadNextPage();
+    }
+
+    /**
+     * Loads the page of history that follows the last loaded row.
+     */
+    private void loadNextPage() {
+        if (isSearching || isLoadingPage || reachedEnd) {
+            return;
+        }
+        isLoadingPage = true;
+        updateEmptyView();
+
+        final int generation = pageGeneration;
+        HistoryEntry after = filteredEntries.isEmpty() ? null : filteredEntries.get(filteredEntries.size() - 1);
+        historyManager.loadPage(after, PAGE_SIZE, page -> {
+            if (isFinishing() || generation != pageGeneration) {
+                return;
+            }
+            isLoadingPage = false;
+            reachedEnd = page.size() < PAGE_SIZE;
+
+            List<HistoryEntry> updated = new ArrayList<>(filteredEntries.size() + page.size());
+            updated.addAll(filteredEntries);
+            for (HistoryEntry entry : page) {
+                // A row visited while paging has already moved to the top
+                if (!shownUrlHashes.contains(entry.getUrlHash())) {
+                    updated.add(entry);
                 }
             }
+            submitEntries(updated);
+        });
+    }
+
+    /**
+     * Runs a full-text search for the current search text.
+     */
+    private void runSearch() {
+        String searchText = searchEditText.getText().toString();
+        historyManager.searchEntries(searchText, SEARCH_RESULT_LIMIT, (query, results) -> {
+            // Ignore results for text the user has already changed
+            if (!isFinishing() && query.equals(searchEditText.getText().toString())) {
+                showEntries(results);
+                if (results.size() < SEARCH_RESULT_LIMIT) {
+                    searchPageText(query, SEARCH_RESULT_LIMIT - results.size());
+                    searchArchive(query, SEARCH_RESULT_LIMIT - results.size());
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends entries whose page text matches to the search results, if the page text
+     * index is turned on.
+     */
+    private void searchPageText(String searchText, int limit) {
+        PageIndexManager pageIndex = PageIndexManager.getInstance(this);
+        if (!pageIndex.isEnabled()) {
+            return;
         }
+        pageIndex.search(searchText, limit, (query, results) -> {
+            if (isFinishing() || !query.equals(searchEditText.getText().toString()) || results.isEmpty()) {
+                return;
+            }
+            List<HistoryEntry> updated = new ArrayList<>(filteredEntries);
+            for (HistoryEntry entry : results) {
+                // Also matched by title or URL
+                if (!shownUrlHashes.contains(entry.getUrlHash())) {
+                    updated.add(entry);
+                }
+            }
+            submitEntries(updated);
+        });
+    }
 
-        // Update adapter
-        adapter.notifyDataSetChanged();
+    /**
+     * Appends matches from the archived history to the search results.
+     */
+    private void searchArchive(String searchText, int limit) {
+        historyManager.searchArchive(searchText, limit, (query, results) -> {
+            if (isFinishing() || !query.equals(searchEditText.getText().toString()) || results.isEmpty()) {
+                return;
+            }
+            List<HistoryEntry> updated = new ArrayList<>(filteredEntries);
+            for (HistoryEntry entry : results) {
+                // An archived entry may have been visited again since
+                if (!shownUrlHashes.contains(entry.getUrlHash())) {
+                    updated.add(entry);
+                }
+            }
+            submitEntries(updated);
+        });
+    }
 
-        // Show/hide empty view
+    /**
+     * Shows the given entries in the list.
+     */
+    private void showEntries(List<HistoryEntry> entries) {
+        submitEntries(new ArrayList<>(entries));
+    }
+
+    /**
+     * Hands a new list to the adapter, which diffs it against the shown one in the background.
+     */
+    private void submitEntries(List<HistoryEntry> entries) {
+        Set<Long> urlHashes = new HashSet<>();
+        for (HistoryEntry entry : entries) {
+            urlHashes.add(entry.getUrlHash());
+        }
+        filteredEntries = Collections.unmodifiableList(entries);
+        shownUrlHashes = urlHashes;
+        adapter.differ.submitList(filteredEntries, this::updateEmptyView);
+    }
+
+    /**
+     * Shows the empty view instead of the list when there is nothing to show, or a
+     * loading message while the first page is loading.
+     */
+    private void updateEmptyView() {
         if (filteredEntries.isEmpty()) {
+            emptyView.setText(isLoadingPage ? R.string.loading : R.string.empty_history);
             recyclerView.setVisibility(View.GONE);
             emptyView.setVisibility(View.VISIBLE);
         } else {
@@ -155,23 +400,162 @@ public class HistoryListActivity extends AppCompatActivity {
         new AlertDialog.Builder(this)
                 .setTitle(R.string.action_clear_history)
                 .setMessage(R.string.confirm_clear_history)
-                .setPositiveButton(R.string.yes, (dialog, which) -> {
-                    historyManager.clearHistory();
-                    refreshHistoryList();
-                })
+                .setPositiveButton(R.string.yes, (dialog, which) -> historyManager.clearHistory())
                 .setNegativeButton(R.string.no, null)
                 .show();
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_history, menu);
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
-        if (item.getItemId() == android.R.id.home) {
+        int id = item.getItemId();
+        if (id == android.R.id.home) {
             finish();
             return true;
+        } else if (id == R.id.action_export_history) {
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("application/x-ndjson");
+            intent.putExtra(Intent.EXTRA_TITLE, "history.jsonl");
+            startActivityForResult(intent, REQUEST_EXPORT_HISTORY);
+            return true;
+        } else if (id == R.id.action_backup_history) {
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("application/x-ndjson");
+            intent.putExtra(Intent.EXTRA_TITLE, "history-backup-"
+                    + new SimpleDateFormat("yyyyMMdd-HHmm", Locale.US).format(new Date()) + ".jsonl");
+            startActivityForResult(intent, REQUEST_BACKUP_HISTORY);
+            return true;
+        } else if (id == R.id.action_import_history) {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("*/*");
+            startActivityForResult(intent, REQUEST_IMPORT_HISTORY);
+            return true;
+        } else if (id == R.id.action_history_stats) {
+            historyManager.loadStats(STATS_DAYS, STATS_TOP_SITES, this::showStats);
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+
+        try {
+            if (requestCode == REQUEST_EXPORT_HISTORY) {
+                OutputStream out = openOutputStream(data.getData());
+                historyManager.exportHistory(out, (count, error) ->
+                        showTransferResult(R.string.history_exported, count, error));
+            } else if (requestCode == REQUEST_BACKUP_HISTORY) {
+                OutputStream out = openOutputStream(data.getData());
+                final SharedPreferences prefs = getSharedPreferences(BACKUP_PREFS, Context.MODE_PRIVATE);
+                historyManager.exportChanges(out, prefs.getLong(KEY_BACKUP_SEQ, 0), (count, seq, full, error) -> {
+                    if (error == null) {
+                        prefs.edit().putLong(KEY_BACKUP_SEQ, seq).apply();
+                    }
+                    showTransferResult(full ? R.string.history_exported : R.string.history_backed_up, count, error);
+                });
+            } else if (requestCode == REQUEST_IMPORT_HISTORY) {
+                InputStream in = openInputStream(data.getData());
+                // The list reloads when the history reports the import
+                historyManager.importHistory(in, (count, error) ->
+                        showTransferResult(R.string.history_imported, count, error));
+            }
+        } catch (FileNotFoundException | SecurityException e) {
+            Log.e(TAG, "Error opening history file", e);
+            Toast.makeText(this, R.string.history_transfer_error, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Opens a picked file for writing, replacing its content.
+     *
+     * @throws FileNotFoundException If the provider gives no stream.
+     */
+    private OutputStream openOutputStream(Uri uri) throws FileNotFoundException {
+        OutputStream out = getContentResolver().openOutputStream(uri, "wt");
+        if (out == null) {
+            throw new FileNotFoundException("No output stream for " + uri);
+        }
+        return out;
+    }
+
+    /**
+     * Opens a picked file for reading.
+     *
+     * @throws FileNotFoundException If the provider gives no stream.
+     */
+    private InputStream openInputStream(Uri uri) throws FileNotFoundException {
+        InputStream in = getContentResolver().openInputStream(uri);
+        if (in == null) {
+            throw new FileNotFoundException("No input stream for " + uri);
+        }
+        return in;
+    }
+
+    /**
+     * Tells the user how an export or import went.
+     */
+    private void showTransferResult(int messageId, int count, Exception error) {
+        if (error != null) {
+            Toast.makeText(this, R.string.history_transfer_error, Toast.LENGTH_LONG).show();
+        } else {
+            Toast.makeText(this, getString(messageId, count), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Shows the history statistics in a dialog.
+     */
+    private void showStats(HistoryStats stats) {
+        if (isFinishing()) {
+            return;
+        }
+        // Days are numbered in local time, so their start is formatted as a UTC date
+        SimpleDateFormat dayFormat = new SimpleDateFormat("EEE, MMM d", Locale.getDefault());
+        dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        StringBuilder message = new StringBuilder();
+        message.append(getString(R.string.history_stats_visits, STATS_DAYS, stats.getVisitCount()));
+        for (DailyStats day : stats.getDays()) {
+            message.append('\n').append(getString(R.string.history_stats_day,
+                    dayFormat.format(new Date(day.getDayStartUtc())), day.getVisitCount()));
+        }
+        long dwellTime = stats.getAverageDwellTime();
+        if (dwellTime > 0) {
+            message.append("\n\n").append(getString(R.string.history_stats_dwell,
+                    DateUtils.formatElapsedTime(dwellTime / 1000)));
+        }
+        int busiestHour = stats.getBusiestHour();
+        if (busiestHour >= 0) {
+            message.append("\n").append(getString(R.string.history_stats_busiest_hour, busiestHour));
+        }
+        if (!stats.getTopDomains().isEmpty()) {
+            message.append("\n\n").append(getString(R.string.history_stats_top_sites));
+            for (DomainStats domain : stats.getTopDomains()) {
+                message.append('\n').append(getString(R.string.history_stats_site,
+                        domain.getDomain(), domain.getVisitCount()));
+            }
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.history_stats_title)
+                .setMessage(message)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
+
     /**
      * Opens a URL in the BrowserActivity.
      */
@@ -189,6 +573,7 @@ public class HistoryListActivity extends AppCompatActivity {
     private class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.ViewHolder> {
 
         private final SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy HH:mm", Locale.getDefault());
+        final AsyncListDiffer<HistoryEntry> differ = new AsyncListDiffer<>(this, new HistoryDiffCallback());
 
         @NonNull
         @Override
@@ -199,10 +584,10 @@ public class HistoryListActivity extends AppCompatActivity {
 
         @Override
         public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-            HistoryEntry entry = filteredEntries.get(position);
+            HistoryEntry entry = differ.getCurrentList().get(position);
             holder.titleTextView.setText(entry.getTitle());
             holder.urlTextView.setText(entry.getUrl());
-            holder.timeTextView.setText(dateFormat.format(entry.getTimestamp()));
+            holder.timeTextView.setText(dateFormat.format(new Date(entry.getTimestamp())));
 
             // Set click listener
             holder.itemView.setOnClickListener(v -> openUrl(entry.getUrl()));
@@ -216,20 +601,36 @@ public class HistoryListActivity extends AppCompatActivity {
 
         @Override
         public int getItemCount() {
-            return filteredEntries.size();
+            return differ.getCurrentList().size();
         }
 
         /**
          * Shows a dialog to confirm deleting a history entry.
          */
         private void showDeleteEntryDialog(HistoryEntry entry) {
-            new AlertDialog.Builder(HistoryListActivity.this)
+            AlertDialog.Builder builder = new AlertDialog.Builder(HistoryListActivity.this)
                     .setTitle("Delete History Entry")
                     .setMessage("Delete this entry from history?")
-                    .setPositiveButton(R.string.delete, (dialog, which) -> {
-                        historyManager.deleteEntry(entry.getUrl());
-                        refreshHistoryList();
-                    })
+                    // The row goes away when the history reports the removal
+                    .setPositiveButton(R.string.delete, (dialog, which) -> historyManager.deleteEntry(entry.getUrl()))
+                    .setNegativeButton(R.string.cancel, null);
+            // The exact host, not its registrable domain, which is only approximated and
+            // would take in unrelated sites on hosts such as github.io
+            final String host = UrlCanonicalizer.getHost(entry.getUrl());
+            if (host != null) {
+                builder.setNeutralButton(R.string.delete_site, (dialog, which) -> showDeleteSiteDialog(host));
+            }
+            builder.show();
+        }
+
+        /**
+         * Shows a dialog to confirm deleting all entries of a host and its subdomains.
+         */
+        private void showDeleteSiteDialog(String host) {
+            new AlertDialog.Builder(HistoryListActivity.this)
+                    .setTitle(R.string.delete_site)
+                    .setMessage(getString(R.string.delete_site_confirm, host))
+                    .setPositiveButton(R.string.delete, (dialog, which) -> historyManager.deleteSite(host))
                     .setNegativeButton(R.string.cancel, null)
                     .show();
         }
@@ -0,0 +1,72 @@
+package com.noctusoft.webviewbrowser.ui;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import com.noctusoft.webviewbrowser.AutocompleteManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adapter for displaying address bar suggestions in a drop-down list.
+ */
+public class SuggestionAdapter extends BaseAdapter {
+
+    private final LayoutInflater inflater;
+    private List<AutocompleteManager.Suggestion> suggestions = new ArrayList<>();
+
+    /**
+     * Constructor for the adapter.
+     *
+     * @param context The context
+     */
+    public SuggestionAdapter(Context context) {
+        this.inflater = LayoutInflater.from(context);
+    }
+
+    /**
+     * Replaces the suggestions shown.
+     *
+     * @param suggestions The new suggestions, best first
+     */
+    public void setSuggestions(List<AutocompleteManager.Suggestion> suggestions) {
+        this.suggestions = suggestions;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return suggestions.size();
+    }
+
+    @Override
+    public AutocompleteManager.Suggestion getItem(int position) {
+        return suggestions.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView;
+        if (view == null) {
+            view = inflater.inflate(android.R.layout.simple_list_item_2, parent, false);
+        }
+
+        AutocompleteManager.Suggestion suggestion = getItem(position);
+        TextView titleView = view.findViewById(android.R.id.text1);
+        TextView urlView = view.findViewById(android.R.id.text2);
+        String title = suggestion.getTitle();
+        titleView.setText(title != null && !title.isEmpty() ? title : suggestion.getUrl());
+        urlView.setText(suggestion.getUrl());
+        return view;
+    }
+}
@@ -0,0 +1,139 @@
+package com.noctusoft.webviewbrowser.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+import android.webkit.CookieManager;
+import android.webkit.WebStorage;
+import android.webkit.WebView;
+
+/**
+ * Utility class for the ephemeral mode, in which browsing writes nothing to storage.
+ *
+ * <p>In this mode the history database is held in memory, favorites and variables are
+ * changed in memory only, and the WebView keeps its cookies and storage in a data
+ * directory of its own that is emptied at every start, with its HTTP cache bypassed.
+ * Nothing is written when the app goes to the background. What was browsed is gone
+ * once the process ends.</p>
+ *
+ * <p>A separate WebView data directory needs Android 9. Before that the WebView shares
+ * the normal cookies, web storage and cache, which are then neither isolated nor
+ * cleared, see {@link #isWebViewIsolated}.</p>
+ *
+ * <p>The mode is read once per process, since the database and the WebView data
+ * directory cannot be switched while in use; {@link #setEnabled} takes effect when
+ * the app is next started.</p>
+ */
+public class EphemeralMode {
+
+    private static final String TAG = "EphemeralMode";
+    private static final String PREFS_NAME = "ephemeral_mode";
+    private static final String KEY_ENABLED = "enabled";
+    // Suffix of the WebView data directory, so the normal cookies and storage are not touched
+    private static final String WEBVIEW_DATA_SUFFIX = "ephemeral";
+
+    private static Boolean active;
+    private static boolean isolationAttempted;
+    private static boolean webViewIsolated;
+
+    private EphemeralMode() {
+    }
+
+    /**
+     * Checks whether this process runs in ephemeral mode. The setting is read the first
+     * time and kept for the life of the process.
+     *
+     * @param context A context
+     * @return true if nothing is to be written to storage
+     */
+    public static synchronized boolean isActive(Context context) {
+        if (active == null) {
+            active = isEnabled(context);
+            if (active) {
+                Log.i(TAG, "Running in ephemeral mode");
+            }
+        }
+        return active;
+    }
+
+    /**
+     * @param context A context
+     * @return Whether the app is set to start in ephemeral mode, which may differ from
+     *         {@link #isActive} until it is restarted
+     */
+    public static boolean isEnabled(Context context) {
+        return prefs(context).getBoolean(KEY_ENABLED, false);
+    }
+
+    /**
+     * Sets whether the app starts in ephemeral mode from its next start on.
+     *
+     * @param context A context
+     * @param enabled true for ephemeral mode
+     */
+    public static void setEnabled(Context context, boolean enabled) {
+        prefs(context).edit().putBoolean(KEY_ENABLED, enabled).apply();
+    }
+
+    /**
+     * Gives the WebView a data directory of its own in ephemeral mode, so cookies and
+     * storage of the session are kept apart from those of normal browsing. Must be
+     * called before the first WebView of the process is created. Data directories can
+     * only be separated from Android 9 on; before that, the session uses the normal
+     * cookies and storage.
+     *
+     * @param context A context
+     */
+    public static synchronized void isolateWebView(Context context) {
+        if (isolationAttempted || !isActive(context)) {
+            return;
+        }
+        isolationAttempted = true;
+        if (!isWebViewIsolationSupported()) {
+            Log.w(TAG, "WebView data cannot be isolated before Android 9");
+            return;
+        }
+        try {
+            WebView.setDataDirectorySuffix(WEBVIEW_DATA_SUFFIX);
+            webViewIsolated = true;
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "WebView already created, cannot isolate its data", e);
+        }
+    }
+
+    /**
+     * @return Whether this Android version can give the WebView a data directory of its own
+     */
+    public static boolean isWebViewIsolationSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P;
+    }
+
+    /**
+     * @return Whether the WebView of this process uses the ephemeral data directory, so
+     *         its cookies and storage can be cleared without touching normal browsing
+     */
+    public static synchronized boolean isWebViewIsolated() {
+        return webViewIsolated;
+    }
+
+    /**
+     * Removes the cookies, web storage and cache that an earlier ephemeral session may
+     * have left in the WebView data directory. Does nothing unless the WebView is
+     * isolated, since it would otherwise wipe the data of normal browsing.
+     *
+     * @param webView The WebView
+     */
+    public static void clearWebViewData(WebView webView) {
+        if (!isWebViewIsolated()) {
+            return;
+        }
+        CookieManager.getInstance().removeAllCookies(null);
+        WebStorage.getInstance().deleteAllData();
+        webView.clearCache(true);
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,69 @@
+package com.noctusoft.webviewbrowser.utils;
+
+/**
+ * Utility class for frecency, the ranking of history entries by how often and how
+ * recently they were visited.
+ *
+ * <p>Every visit contributes a weight that halves every {@link #HALF_LIFE_MS}, and the
+ * score of an entry is the sum over its visits. Instead of the score itself, which
+ * would have to be decayed as time passes, an entry stores the time at which a single
+ * visit would have the same score. That value only changes when the entry is visited,
+ * can be updated from the previous value alone, and orders entries the same way as
+ * their scores at any point in time, so it can be indexed and sorted on directly.</p>
+ */
+public class FrecencyUtils {
+
+    /**
+     * Time after which a visit counts half as much.
+     */
+    public static final long HALF_LIFE_MS = 30L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Weight of a single visit.
+     */
+    public static final double VISIT_WEIGHT = 1.0;
+
+    // Decay rate per millisecond
+    private static final double LAMBDA = Math.log(2) / HALF_LIFE_MS;
+
+    /**
+     * Adds a visit to a stored frecency.
+     *
+     * @param frecency The stored frecency, 0 if the entry has no visits yet
+     * @param visitTime The time of the visit in milliseconds since the epoch
+     * @param weight The weight of the visit, see {@link #VISIT_WEIGHT}
+     * @return The new stored frecency
+     */
+    public static long addVisit(long frecency, long visitTime, double weight) {
+        // Score of the earlier visits at visitTime, plus the new visit
+        double score = Math.exp(LAMBDA * (frecency - visitTime)) + weight;
+        return visitTime + Math.round(Math.log(score) / LAMBDA);
+    }
+
+    /**
+     * Combines the stored frecencies of two sets of visits, as when two entries are merged.
+     *
+     * @param a The stored frecency of the first set
+     * @param b The stored frecency of the second set
+     * @return The stored frecency of all visits together
+     */
+    public static long merge(long a, long b) {
+        long high = Math.max(a, b);
+        long low = Math.min(a, b);
+        // Score of both at time high, in units of a visit at that time
+        double score = 1 + Math.exp(LAMBDA * (low - high));
+        return high + Math.round(Math.log(score) / LAMBDA);
+    }
+
+    /**
+     * Converts a stored frecency into a score at a given time.
+     * A single visit made at {@code now} scores {@link #VISIT_WEIGHT}.
+     *
+     * @param frecency The stored frecency
+     * @param now The time to evaluate the score at
+     * @return The score
+     */
+    public static double score(long frecency, long now) {
+        return Math.exp(LAMBDA * (frecency - now));
+    }
+}
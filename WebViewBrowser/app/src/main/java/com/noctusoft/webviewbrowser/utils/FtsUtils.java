@@ -0,0 +1,92 @@
+package com.noctusoft.webviewbrowser.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Utility class for building SQLite full-text search queries.
+ */
+public class FtsUtils {
+
+    private static final Pattern TOKEN_PATTERN = Pattern.compile("[\\p{L}\\p{N}]+");
+    private static final int MAX_TOKENS = 8;
+    // Shorter prefixes match most of the index, and the index only stores prefixes of 2 and 3
+    private static final int MIN_TOKEN_LENGTH = 2;
+
+    /**
+     * Turns free text typed by the user into an FTS MATCH expression.
+     * Every word becomes a prefix query and all words must match, so typing
+     * "allied pil" finds entries containing both "allied..." and "pil...".
+     * Operators and quotes in the input are dropped rather than interpreted, and so
+     * are words of a single character.
+     *
+     * @param input The text typed by the user
+     * @return The MATCH expression, or null if the input has no searchable words
+     */
+    public static String toPrefixQuery(String input) {
+        List<String> tokens = toTokens(input);
+        if (tokens.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder query = new StringBuilder();
+        for (String token : tokens) {
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append(token).append('*');
+        }
+        return query.toString();
+    }
+
+    /**
+     * Splits free text typed by the user into the words {@link #toPrefixQuery} searches for.
+     *
+     * @param input The text typed by the user
+     * @return The lower case words, empty if the input has no searchable words
+     */
+    public static List<String> toTokens(String input) {
+        List<String> tokens = new ArrayList<>();
+        if (input == null) {
+            return tokens;
+        }
+
+        Matcher matcher = TOKEN_PATTERN.matcher(input.toLowerCase(Locale.ROOT));
+        while (matcher.find() && tokens.size() < MAX_TOKENS) {
+            if (matcher.end() - matcher.start() >= MIN_TOKEN_LENGTH) {
+                tokens.add(matcher.group());
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Checks text the way the full-text index would for a query from {@link #toPrefixQuery},
+     * for rows that are not in the index yet.
+     *
+     * @param tokens The words, see {@link #toTokens}
+     * @param texts The texts to search, such as the URL and title; null ones are skipped
+     * @return true if every word is a prefix of a word in one of the texts
+     */
+    public static boolean matchesAllPrefixes(List<String> tokens, String... texts) {
+        for (String token : tokens) {
+            boolean found = false;
+            for (int i = 0; i < texts.length && !found; i++) {
+                if (texts[i] == null) {
+                    continue;
+                }
+                Matcher matcher = TOKEN_PATTERN.matcher(texts[i].toLowerCase(Locale.ROOT));
+                while (!found && matcher.find()) {
+                    found = matcher.group().startsWith(token);
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
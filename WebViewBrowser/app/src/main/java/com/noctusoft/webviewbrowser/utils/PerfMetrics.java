@@ -0,0 +1,67 @@
+package com.noctusoft.webviewbrowser.utils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Utility class for timing expensive operations such as cold start work.
+ * Each timing is logged under the "PerfMetrics" tag and the latest value per name is
+ * kept, so timings can be read with logcat or collected with {@link #getTimings()}.
+ * Other measurements, such as bytes freed, are kept the same way, see {@link #recordValue}.
+ */
+public class PerfMetrics {
+
+    private static final String TAG = "PerfMetrics";
+    private static final Map<String, Long> timings = new ConcurrentHashMap<>();
+    private static final Map<String, Long> values = new ConcurrentHashMap<>();
+
+    /**
+     * @return The start time of an operation, to pass to {@link #record}
+     */
+    public static long start() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Records how long an operation took.
+     *
+     * @param name The name of the operation, such as "history.open"
+     * @param startTime The value {@link #start()} returned when the operation started
+     * @return The duration in milliseconds
+     */
+    public static long record(String name, long startTime) {
+        long duration = SystemClock.elapsedRealtime() - startTime;
+        timings.put(name, duration);
+        Log.i(TAG, name + ": " + duration + " ms");
+        return duration;
+    }
+
+    /**
+     * @return The latest duration in milliseconds of each recorded operation
+     */
+    public static Map<String, Long> getTimings() {
+        return new HashMap<>(timings);
+    }
+
+    /**
+     * Records a measurement other than a duration.
+     *
+     * @param name The name of the measurement, such as "maintenance.bytes_reclaimed"
+     * @param value The value
+     */
+    public static void recordValue(String name, long value) {
+        values.put(name, value);
+        Log.i(TAG, name + ": " + value);
+    }
+
+    /**
+     * @return The latest value of each recorded measurement
+     */
+    public static Map<String, Long> getValues() {
+        return new HashMap<>(values);
+    }
+}
@@ -0,0 +1,175 @@
+package com.noctusoft.webviewbrowser.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index from string keys to values that finds all values whose key starts with a prefix.
+ *
+ * <p>Keys are kept in a sorted array, so a lookup is a binary search followed by a scan
+ * of the matching range. New keys go into a small sorted overlay first and are merged
+ * into the array once the overlay grows past a fraction of it, which keeps adding a key
+ * cheap without giving up the compact array. A key may map to several values.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ *
+ * @param <T> The type of the values.
+ */
+public class PrefixIndex<T> {
+
+    private static final int MIN_MERGE_THRESHOLD = 256;
+
+    /**
+     * Receives the values found by a lookup.
+     */
+    public interface Visitor<T> {
+        /**
+         * @param value A value whose key starts with the prefix
+         * @return false to stop the lookup
+         */
+        boolean visit(T value);
+    }
+
+    /**
+     * Decides which values to keep when the index is compacted.
+     */
+    public interface Filter<T> {
+        /**
+         * @param value A value in the index
+         * @return true to keep the value
+         */
+        boolean keep(T value);
+    }
+
+    private String[] keys = new String[0];
+    private Object[] values = new Object[0];
+    private final TreeMap<String, List<T>> overlay = new TreeMap<>();
+    private int overlaySize;
+
+    /**
+     * Adds a value under a key.
+     *
+     * @param key The key
+     * @param value The value
+     */
+    public void add(String key, T value) {
+        List<T> list = overlay.get(key);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            overlay.put(key, list);
+        }
+        list.add(value);
+        overlaySize++;
+
+        if (overlaySize > Math.max(MIN_MERGE_THRESHOLD, keys.length / 8)) {
+            compact(null);
+        }
+    }
+
+    /**
+     * Visits the values of all keys that start with a prefix, first those in the array in
+     * key order, then those in the overlay in key order.
+     *
+     * @param prefix The prefix
+     * @param visitor Receives the values
+     */
+    @SuppressWarnings("unchecked")
+    public void find(String prefix, Visitor<T> visitor) {
+        for (int i = lowerBound(prefix); i < keys.length && keys[i].startsWith(prefix); i++) {
+            if (!visitor.visit((T) values[i])) {
+                return;
+            }
+        }
+        if (overlaySize == 0) {
+            return;
+        }
+        for (Map.Entry<String, List<T>> entry : overlay.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                return;
+            }
+            for (T value : entry.getValue()) {
+                if (!visitor.visit(value)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the overlay into the sorted array, dropping values that the filter rejects.
+     *
+     * @param filter Decides which values to keep, or null to keep all of them
+     */
+    @SuppressWarnings("unchecked")
+    public void compact(Filter<T> filter) {
+        String[] mergedKeys = new String[keys.length + overlaySize];
+        Object[] mergedValues = new Object[mergedKeys.length];
+        int size = 0;
+        int i = 0;
+
+        for (Map.Entry<String, List<T>> entry : overlay.entrySet()) {
+            String key = entry.getKey();
+            // Copy the array keys that sort before this overlay key
+            for (; i < keys.length && keys[i].compareTo(key) <= 0; i++) {
+                if (filter == null || filter.keep((T) values[i])) {
+                    mergedKeys[size] = keys[i];
+                    mergedValues[size++] = values[i];
+                }
+            }
+            for (T value : entry.getValue()) {
+                if (filter == null || filter.keep(value)) {
+                    mergedKeys[size] = key;
+                    mergedValues[size++] = value;
+                }
+            }
+        }
+        for (; i < keys.length; i++) {
+            if (filter == null || filter.keep((T) values[i])) {
+                mergedKeys[size] = keys[i];
+                mergedValues[size++] = values[i];
+            }
+        }
+
+        keys = size == mergedKeys.length ? mergedKeys : Arrays.copyOf(mergedKeys, size);
+        values = size == mergedValues.length ? mergedValues : Arrays.copyOf(mergedValues, size);
+        overlay.clear();
+        overlaySize = 0;
+    }
+
+    /**
+     * Removes all keys and values.
+     */
+    public void clear() {
+        keys = new String[0];
+        values = new Object[0];
+        overlay.clear();
+        overlaySize = 0;
+    }
+
+    /**
+     * @return The number of key-value pairs in the index
+     */
+    public int size() {
+        return keys.length + overlaySize;
+    }
+
+    /**
+     * Finds the first position in the array whose key is not less than the given key.
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
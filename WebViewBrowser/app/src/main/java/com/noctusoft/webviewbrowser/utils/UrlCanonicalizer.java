@@ -0,0 +1,372 @@
+package com.noctusoft.webviewbrowser.utils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Utility class for turning URLs into canonical keys and extracting their host and
+ * registrable domain, so that history, favorites and credentials compare URLs the same way.
+ *
+ * <p>A canonical URL has a lowercase scheme and host, no default port, no fragment, no
+ * tracking parameters such as {@code utm_source}, and no path when the path is only "/".
+ * The path and the other query parameters are left alone, since servers may treat
+ * their case and order as significant. Canonical URLs are used as keys, not for
+ * loading pages.</p>
+ *
+ * <p>Results are kept in a bounded cache, so parsing the same URL again, as happens for
+ * every lookup while a page is open, is a map lookup and returns the same strings.
+ * This class is thread-safe.</p>
+ */
+public class UrlCanonicalizer {
+
+    private static final int CACHE_SIZE = 512;
+    private static final int HOST_CACHE_SIZE = 256;
+
+    // Query parameters that only identify where a click came from
+    private static final Set<String> TRACKING_PARAMS = new HashSet<>(Arrays.asList(
+            "fbclid", "gclid", "dclid", "gbraid", "wbraid", "msclkid", "yclid",
+            "mc_cid", "mc_eid", "igshid", "_ga", "_gl"));
+    private static final String TRACKING_PREFIX = "utm_";
+
+    // Second-level labels under which country code domains register names, as in
+    // "example.co.uk". An approximation of the public suffix list, which is not bundled.
+    private static final Set<String> SECOND_LEVEL_LABELS = new HashSet<>(Arrays.asList(
+            "ac", "co", "com", "edu", "gob", "gov", "mil", "ne", "net", "or", "org"));
+
+    // Plain maps rather than android.util.LruCache, so this class also runs in local unit tests
+    private static final Map<String, ParsedUrl> cache = newLruMap(CACHE_SIZE);
+    // Shares host and domain strings between URLs of the same site
+    private static final Map<String, String> hostPool = newLruMap(HOST_CACHE_SIZE);
+
+    /**
+     * The parts of a URL that this class derives.
+     */
+    private static final class ParsedUrl {
+        final String canonical;
+        final String host;
+        final String registrableDomain;
+        final String reversedHost;
+
+        ParsedUrl(String canonical, String host, String registrableDomain) {
+            this.canonical = canonical;
+            this.host = host;
+            this.registrableDomain = registrableDomain;
+            this.reversedHost = host == null ? null : reverseHost(host);
+        }
+    }
+
+    /**
+     * Converts a URL into its canonical form.
+     *
+     * @param url The URL
+     * @return The canonical URL, or the URL itself if it is already canonical
+     */
+    public static String canonicalize(String url) {
+        return parse(url).canonical;
+    }
+
+    /**
+     * Extracts the lowercase host of a URL, without port or user info.
+     * A bare host such as "example.com" is accepted as well.
+     *
+     * @param url The URL
+     * @return The host, or null if the URL has none, as for "about:blank"
+     */
+    public static String getHost(String url) {
+        return parse(url).host;
+    }
+
+    /**
+     * Extracts the domain a URL's host is registered under, such as "example.com" for
+     * "https://mail.example.com/" or "example.co.uk" for "www.example.co.uk".
+     * IP addresses and single-label hosts are returned as they are.
+     *
+     * @param url The URL or bare host
+     * @return The registrable domain, or null if the URL has no host
+     */
+    public static String getRegistrableDomain(String url) {
+        return parse(url).registrableDomain;
+    }
+
+    /**
+     * Gets the host of a URL with its labels in reverse order, see {@link #reverseHost}.
+     *
+     * @param url The URL or bare host
+     * @return The reversed host, or null if the URL has no host
+     */
+    public static String getReversedHost(String url) {
+        return parse(url).reversedHost;
+    }
+
+    /**
+     * Reverses the labels of a host and ends it with a dot, so "mail.example.com" becomes
+     * "com.example.mail.". Sorted this way, a domain and all its subdomains form one
+     * contiguous range that starts with the reversed domain, see {@link #reversedHostRangeEnd}.
+     *
+     * @param host A lowercase host
+     * @return The reversed host
+     */
+    public static String reverseHost(String host) {
+        StringBuilder reversed = new StringBuilder(host.length() + 1);
+        int end = host.length();
+        for (int i = end - 1; i >= -1; i--) {
+            if (i < 0 || host.charAt(i) == '.') {
+                reversed.append(host, i + 1, end).append('.');
+                end = i;
+            }
+        }
+        return reversed.toString();
+    }
+
+    /**
+     * Gets the exclusive upper bound of the range of reversed hosts that starts with a
+     * reversed domain: the domain itself and all its subdomains sort in
+     * [reversedDomain, reversedHostRangeEnd(reversedDomain)).
+     *
+     * @param reversedDomain A reversed host, ending with a dot
+     * @return The end of the range
+     */
+    public static String reversedHostRangeEnd(String reversedDomain) {
+        // '/' sorts right after '.'
+        return reversedDomain.substring(0, reversedDomain.length() - 1) + '/';
+    }
+
+    /**
+     * Turns a reversed host back into the host.
+     *
+     * @param reversedHost A reversed host, see {@link #reverseHost}
+     * @return The host
+     */
+    public static String unreverseHost(String reversedHost) {
+        String trimmed = reversedHost.endsWith(".")
+                ? reversedHost.substring(0, reversedHost.length() - 1) : reversedHost;
+        return trimmed.isEmpty() ? trimmed : reverseHost(trimmed).substring(0, trimmed.length());
+    }
+
+    /**
+     * Checks whether two URLs have the same canonical form.
+     *
+     * @param a A URL
+     * @param b Another URL
+     * @return true if both lead to the same canonical URL
+     */
+    public static boolean isSameUrl(String a, String b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.equals(b) || canonicalize(a).equals(canonicalize(b));
+    }
+
+    /**
+     * Adds "https://" to text typed into the address bar that has no scheme.
+     *
+     * @param input The typed text
+     * @return A URL that can be loaded
+     */
+    public static String withDefaultScheme(String input) {
+        String lower = input.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("http://") || lower.startsWith("https://")) {
+            return input;
+        }
+        return "https://" + input;
+    }
+
+    private static ParsedUrl parse(String url) {
+        ParsedUrl parsed;
+        synchronized (cache) {
+            parsed = cache.get(url);
+        }
+        if (parsed == null) {
+            parsed = compute(url);
+            synchronized (cache) {
+                cache.put(url, parsed);
+            }
+        }
+        return parsed;
+    }
+
+    private static ParsedUrl compute(String url) {
+        String rest = url.trim();
+        int fragment = rest.indexOf('#');
+        if (fragment >= 0) {
+            rest = rest.substring(0, fragment);
+        }
+
+        String scheme = null;
+        int schemeEnd = rest.indexOf("://");
+        if (schemeEnd > 0) {
+            scheme = rest.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+            rest = rest.substring(schemeEnd + 3);
+        } else if (isOpaque(rest)) {
+            // Such as "about:blank" or "data:...", which have no host
+            return new ParsedUrl(rest.equals(url) ? url : rest, null, null);
+        }
+
+        int authorityEnd = indexOfAny(rest, "/?");
+        String authority = authorityEnd < 0 ? rest : rest.substring(0, authorityEnd);
+        String pathAndQuery = authorityEnd < 0 ? "" : rest.substring(authorityEnd);
+
+        String userInfo = "";
+        int at = authority.lastIndexOf('@');
+        if (at >= 0) {
+            userInfo = authority.substring(0, at + 1);
+            authority = authority.substring(at + 1);
+        }
+
+        String host = authority;
+        String port = "";
+        int portStart = authority.lastIndexOf(':');
+        if (portStart >= 0 && portStart > authority.lastIndexOf(']')) {
+            host = authority.substring(0, portStart);
+            port = authority.substring(portStart + 1);
+        }
+        host = host.toLowerCase(Locale.ROOT);
+        if (host.endsWith(".")) {
+            host = host.substring(0, host.length() - 1);
+        }
+        if (port.isEmpty() || isDefaultPort(scheme, port)) {
+            port = "";
+        }
+
+        String path = pathAndQuery;
+        String query = "";
+        int queryStart = pathAndQuery.indexOf('?');
+        if (queryStart >= 0) {
+            path = pathAndQuery.substring(0, queryStart);
+            query = removeTrackingParams(pathAndQuery.substring(queryStart + 1));
+        }
+        if (path.equals("/")) {
+            path = "";
+        }
+
+        StringBuilder canonical = new StringBuilder(url.length());
+        if (scheme != null) {
+            canonical.append(scheme).append("://");
+        }
+        canonical.append(userInfo).append(host);
+        if (!port.isEmpty()) {
+            canonical.append(':').append(port);
+        }
+        canonical.append(path);
+        if (!query.isEmpty()) {
+            canonical.append('?').append(query);
+        }
+
+        String result = canonical.toString();
+        host = host.isEmpty() ? null : pooled(host);
+        return new ParsedUrl(result.equals(url) ? url : result, host,
+                host == null ? null : pooled(registrableDomain(host)));
+    }
+
+    /**
+     * Checks for a URL with a scheme but no "//", as opposed to a host with a port.
+     */
+    private static boolean isOpaque(String url) {
+        int colon = url.indexOf(':');
+        if (colon <= 0 || colon > indexOfAnyOrLength(url, "/?")) {
+            return false;
+        }
+        for (int i = colon + 1; i < url.length() && url.charAt(i) != '/' && url.charAt(i) != '?'; i++) {
+            if (!Character.isDigit(url.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDefaultPort(String scheme, String port) {
+        return ("80".equals(port) && ("http".equals(scheme) || "ws".equals(scheme)))
+                || ("443".equals(port) && ("https".equals(scheme) || "wss".equals(scheme)));
+    }
+
+    private static String removeTrackingParams(String query) {
+        StringBuilder kept = new StringBuilder(query.length());
+        for (String param : query.split("&")) {
+            if (param.isEmpty()) {
+                continue;
+            }
+            int equals = param.indexOf('=');
+            String name = (equals < 0 ? param : param.substring(0, equals)).toLowerCase(Locale.ROOT);
+            if (name.startsWith(TRACKING_PREFIX) || TRACKING_PARAMS.contains(name)) {
+                continue;
+            }
+            if (kept.length() > 0) {
+                kept.append('&');
+            }
+            kept.append(param);
+        }
+        return kept.length() == query.length() ? query : kept.toString();
+    }
+
+    private static String registrableDomain(String host) {
+        if (host.startsWith("[") || host.indexOf(':') >= 0 || isIpv4(host)) {
+            return host;
+        }
+        String[] labels = host.split("\\.");
+        int count = labels.length;
+        if (count <= 2) {
+            return host;
+        }
+        int keep = labels[count - 1].length() == 2 && SECOND_LEVEL_LABELS.contains(labels[count - 2]) ? 3 : 2;
+        StringBuilder domain = new StringBuilder();
+        for (int i = count - keep; i < count; i++) {
+            if (domain.length() > 0) {
+                domain.append('.');
+            }
+            domain.append(labels[i]);
+        }
+        return domain.toString();
+    }
+
+    private static boolean isIpv4(String host) {
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String pooled(String value) {
+        synchronized (hostPool) {
+            String existing = hostPool.get(value);
+            if (existing != null) {
+                return existing;
+            }
+            hostPool.put(value, value);
+            return value;
+        }
+    }
+
+    /**
+     * Creates a map that drops its least recently used entry once it holds more than
+     * maxSize entries. Callers synchronize on the map.
+     */
+    private static <K, V> Map<K, V> newLruMap(final int maxSize) {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    private static int indexOfAny(String s, String chars) {
+        for (int i = 0; i < s.length(); i++) {
+            if (chars.indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfAnyOrLength(String s, String chars) {
+        int index = indexOfAny(s, chars);
+        return index < 0 ? s.length() : index;
+    }
+}
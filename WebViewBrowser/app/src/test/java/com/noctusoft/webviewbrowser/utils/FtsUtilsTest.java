@@ -0,0 +1,38 @@
+package com.noctusoft.webviewbrowser.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link FtsUtils}.
+ */
+public class FtsUtilsTest {
+
+    @Test
+    public void toPrefixQuery_makesEveryWordAPrefix() {
+        assertEquals("allied* pil*", FtsUtils.toPrefixQuery("Allied \"pil\""));
+    }
+
+    @Test
+    public void toPrefixQuery_dropsSingleCharacterWords() {
+        assertEquals("news*", FtsUtils.toPrefixQuery("a news b"));
+        assertNull(FtsUtils.toPrefixQuery("a"));
+        assertNull(FtsUtils.toPrefixQuery("- *"));
+    }
+
+    @Test
+    public void matchesAllPrefixes_needsEveryWordInSomeText() {
+        assertTrue(FtsUtils.matchesAllPrefixes(Arrays.asList("exa", "pag"),
+                "https://example.com/page", null));
+        assertTrue(FtsUtils.matchesAllPrefixes(Arrays.asList("exa", "new"),
+                "https://example.com/a", "Latest News"));
+        assertFalse(FtsUtils.matchesAllPrefixes(Arrays.asList("exa", "ample"),
+                "https://example.com/a", "Title"));
+    }
+}